@@ -16,7 +16,12 @@ import {
 	TextDocumentSyncKind,
 	InitializeResult,
 	Position,
-	DocumentFormattingParams
+	DocumentFormattingParams,
+	DocumentRangeFormattingParams,
+	SemanticTokens,
+	SemanticTokensDelta,
+	SemanticTokensParams,
+	SemanticTokensDeltaParams
 } from 'vscode-languageserver/node';
 
 import {
@@ -24,20 +29,38 @@ import {
 } from 'vscode-languageserver-textdocument';
 import fetch from 'node-fetch';
 
-import {
-	diff_match_patch as DiffMatchPatch,
-	Diff,
-	DIFF_DELETE,
-	DIFF_INSERT,
-	DIFF_EQUAL,
-} from 'diff-match-patch';
-
 // Create a connection for the server, using Node's IPC as a transport.
 // Also include all preview / proposed LSP features.
 let connection = createConnection(ProposedFeatures.all);
 
-// Create a simple text document manager.
-let documents: TextDocuments<TextDocument> = new TextDocuments(TextDocument);
+// The server keeps a session of every open document, updated with the same incremental changes the
+// editor sends, so that requests about part of a document do not send or lex all of it. Updates of
+// a document are sent one after the other, in the order the editor made them.
+let sessionUpdates: Map<string, Promise<unknown>> = new Map();
+
+function updateSession(uri: string, method: string, body: object): Promise<unknown> {
+	const previous = sessionUpdates.get(uri) ?? Promise.resolve();
+	const update = previous
+		.then(() => fetch(`http://localhost:4567/v1/documents/${method}`, {
+			method: 'post',
+			body: JSON.stringify({ uri, ...body })
+		}))
+		.catch(() => undefined);
+	sessionUpdates.set(uri, update);
+	return update;
+}
+
+// Create a simple text document manager, which also mirrors open documents to the server.
+let documents: TextDocuments<TextDocument> = new TextDocuments({
+	create: (uri, languageId, version, content) => {
+		updateSession(uri, 'open', { text: content });
+		return TextDocument.create(uri, languageId, version, content);
+	},
+	update: (document, changes, version) => {
+		updateSession(document.uri, 'change', { changes });
+		return TextDocument.update(document, changes, version);
+	}
+});
 
 let hasConfigurationCapability: boolean = false;
 let hasWorkspaceFolderCapability: boolean = false;
@@ -67,7 +90,16 @@ connection.onInitialize((params: InitializeParams) => {
 			completionProvider: {
 				resolveProvider: true
 			},
-			documentFormattingProvider: true
+			documentFormattingProvider: true,
+			documentRangeFormattingProvider: true,
+			semanticTokensProvider: {
+				// SemanticTokens.TOKEN_TYPES on the Java side
+				legend: {
+					tokenTypes: ['keyword', 'string', 'number', 'comment', 'operator', 'variable'],
+					tokenModifiers: []
+				},
+				full: { delta: true }
+			}
 		}
 	};
 	if (hasWorkspaceFolderCapability) {
@@ -135,9 +167,15 @@ function getDocumentSettings(resource: string): Thenable<ExampleSettings> {
 	return result;
 }
 
-// Only keep settings for open documents
+// Only keep settings and sessions for open documents
 documents.onDidClose(e => {
 	documentSettings.delete(e.document.uri);
+	const close = updateSession(e.document.uri, 'close', {});
+	close.then(() => {
+		if (sessionUpdates.get(e.document.uri) === close) {
+			sessionUpdates.delete(e.document.uri);
+		}
+	});
 });
 
 // The content of a text document has changed. This event is emitted
@@ -154,12 +192,41 @@ interface SqlParseResponse {
 		row: number
 		column: number
 	}
+	cancelled?: boolean
+	edits?: {
+		range: {
+			start: Position
+			end: Position
+		}
+		new_text: string
+	}[]
 }
 
-async function parseSql(sql: string): Promise<SqlParseResponse> {
+// With the document's uri and version, the server abandons this request once a newer version arrives.
+// Requests for edits only format, so they skip the suggestions.
+async function parseSql(sql: string, document?: TextDocument, includeEdits = false, cursor?: number): Promise<SqlParseResponse> {
 	const response = await fetch('http://localhost:4567/v1/parse', {
         method: 'post',
-        body:    JSON.stringify({ sql })
+        body:    JSON.stringify({ sql, uri: document?.uri, version: document?.version, include_edits: includeEdits, skip_suggestions: includeEdits, cursor })
+    });
+	return await response.json();
+}
+
+interface SqlDiagnosticsResponse {
+	diagnostics?: {
+		range: {
+			start: Position
+			end: Position
+		}
+		message: string
+	}[]
+	cancelled?: boolean
+}
+
+async function checkSql(sql: string, document: TextDocument): Promise<SqlDiagnosticsResponse> {
+	const response = await fetch('http://localhost:4567/v1/diagnostics', {
+        method: 'post',
+        body:    JSON.stringify({ sql, uri: document.uri, version: document.version })
     });
 	return await response.json();
 }
@@ -171,23 +238,20 @@ async function validateTextDocument(textDocument: TextDocument): Promise<void> {
 	// The validator creates diagnostics for all uppercase words length 2 and more
 	let text = textDocument.getText();
 
-	const parseResponse = await parseSql(text);
-	const parseError = parseResponse.parse_error;
-
-	let diagnostics: Diagnostic[] = [];
-	if (parseError) {
-		let diagnostic: Diagnostic = {
-			severity: DiagnosticSeverity.Error,
-			range: {
-				start: Position.create(parseError.row - 1, parseError.column),
-				end: Position.create(parseError.row - 1, parseError.column)
-			},
-			message: parseError.message,
-			source: 'Query Engine'
-		};
-		diagnostics.push(diagnostic);
+	const diagnosticsResponse = await checkSql(text, textDocument);
+	if (diagnosticsResponse.cancelled) {
+		// a newer version of the document is being validated
+		return;
 	}
 
+	// every syntax error of every statement, not just the first one
+	let diagnostics: Diagnostic[] = (diagnosticsResponse.diagnostics || []).map(error => ({
+		severity: DiagnosticSeverity.Error,
+		range: error.range,
+		message: error.message,
+		source: 'Query Engine'
+	}));
+
 	// let pattern = /\b[A-Z]{2,}\b/g;
 	// let m: RegExpExecArray | null;
 
@@ -242,12 +306,9 @@ connection.onCompletion(
 		const document = documents.get(ident.uri)!;
 
 		const sql = document.getText();
-		const parseResponse = await parseSql(sql);
-
-
-		// The pass parameter contains the position of the text document in
-		// which code complete got requested. For the example we ignore this
-		// info and always provide the same completion items.
+		// suggestions are for the clause and scope at the position of the cursor; with the uri the
+		// server lexes only what changed and reuses the parse while a word is typed
+		const parseResponse = await parseSql(sql, document, false, document.offsetAt(params.position));
 
 		return parseResponse.suggestions
 			.map(sugestion => ({
@@ -280,52 +341,73 @@ connection.onDocumentFormatting(
 		const { textDocument: ident } = params;
 		const document = documents.get(ident.uri)!;
 
-		const unformattedSql = document.getText();
-		const parseResponse = await parseSql(unformattedSql);
-		const formattedSql = parseResponse.formatted_sql;
-		
-		return processResults(document, unformattedSql, formattedSql);
+		// The server returns the formatting as edits of the document
+		const parseResponse = await parseSql(document.getText(), undefined, true);
+		return (parseResponse.edits ?? [])
+			.map(edit => ({ range: edit.range, newText: edit.new_text }));
 	}
 );
 
-function processResults(document: TextDocument, originalText: string, output: string): TextEdit[] {
-	const differ = new DiffMatchPatch();
-	const diffs: Diff[] = differ.diff_main(originalText, output);
-	const edits: TextEdit[] = [];
-	// VSCode wants TextEdits on the original document
-	// this means position only gets moved for DIFF_EQUAL and DIFF_DELETE
-	// as insert is new and doesn't have a position in the original
-	let position = 0;
-	for (const diff of diffs) {
-		const [num, str] = diff;
-		const startPos = document.positionAt(position);
-
-		switch (num) {
-			case DIFF_DELETE:
-				edits.push({
-					range: {
-						start: startPos,
-						end: document.positionAt(position + str.length),
-					},
-					newText: '',
-				});
-				position += str.length;
-				break;
-			case DIFF_INSERT:
-				edits.push({
-					range: { start: startPos, end: startPos },
-					newText: str,
-				});
-				break;
-			case DIFF_EQUAL:
-				position += str.length;
-				break;
+connection.onDocumentRangeFormatting(
+	async (params: DocumentRangeFormattingParams): Promise<TextEdit[]> => {
+		const document = documents.get(params.textDocument.uri)!;
+
+		// Only the statements that overlap the range are formatted, from the session of the document
+		await sessionUpdates.get(document.uri);
+		let response = await fetch('http://localhost:4567/v1/documents/format-range', {
+			method: 'post',
+			body: JSON.stringify({ uri: document.uri, range: params.range })
+		});
+		if (!response.ok) {
+			// the session is gone, e.g. the server restarted
+			response = await fetch('http://localhost:4567/v1/documents/format-range', {
+				method: 'post',
+				body: JSON.stringify({ text: document.getText(), range: params.range })
+			});
 		}
+		const { edits } = await response.json();
+		return (edits as { range: { start: Position, end: Position }, new_text: string }[])
+			.map(edit => ({ range: edit.range, newText: edit.new_text }));
 	}
+);
 
-	return edits;
+// The server remembers the tokens it last returned for each document, and only returns the edits
+// to them when given their result id. The tokens are those of the session of the document, once it
+// has every edit made so far.
+async function semanticTokens(document: TextDocument, previousResultId?: string): Promise<SemanticTokens | SemanticTokensDelta> {
+	await sessionUpdates.get(document.uri);
+	let response = await fetch('http://localhost:4567/v1/documents/semantic-tokens', {
+		method: 'post',
+		body: JSON.stringify({ uri: document.uri, previous_result_id: previousResultId })
+	});
+	if (!response.ok) {
+		// the session is gone, e.g. the server restarted
+		response = await fetch('http://localhost:4567/v1/documents/semantic-tokens', {
+			method: 'post',
+			body: JSON.stringify({ uri: document.uri, text: document.getText(), previous_result_id: previousResultId })
+		});
+	}
+	const result = await response.json();
+	if (result.edits) {
+		return {
+			resultId: result.result_id,
+			edits: result.edits.map((edit: { start: number, delete_count: number, data: number[] }) =>
+				({ start: edit.start, deleteCount: edit.delete_count, data: edit.data }))
+		};
+	}
+	return { resultId: result.result_id, data: result.data };
 }
 
+connection.languages.semanticTokens.on(
+	async (params: SemanticTokensParams): Promise<SemanticTokens> =>
+		await semanticTokens(documents.get(params.textDocument.uri)!) as SemanticTokens
+);
+
+connection.languages.semanticTokens.onDelta(
+	async (params: SemanticTokensDeltaParams): Promise<SemanticTokens | SemanticTokensDelta> =>
+		await semanticTokens(documents.get(params.textDocument.uri)!, params.previousResultId)
+);
+
 // Make the text document manager listen on the connection
 // for open, change and close text document events
 documents.listen(connection);
@@ -0,0 +1,34 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.tree.Node;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Walks a statement once and lets every {@link NodeAnalysis} observe each node, so independent
+ * analyses (subtree hashes, relation and alias collection, ...) share a single traversal instead of
+ * each walking the tree on its own.
+ */
+public final class AnalysisWalker
+{
+    private AnalysisWalker() {}
+
+    public static void walk(Node root, NodeAnalysis... analyses)
+    {
+        walk(root, Arrays.asList(analyses));
+    }
+
+    public static void walk(Node root, List<? extends NodeAnalysis> analyses)
+    {
+        for (NodeAnalysis analysis : analyses) {
+            analysis.enter(root);
+        }
+        for (Node child : root.getChildren()) {
+            walk(child, analyses);
+        }
+        for (NodeAnalysis analysis : analyses) {
+            analysis.exit(root);
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.SqlBaseLexer;
+import io.trino.sql.parser.SqlBaseParser;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.IntervalSet;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The syntactic context of a cursor in a statement, for completion: the clause it is in, the
+ * relations and aliases visible there, the CTEs in scope, the word being typed and the tokens the
+ * grammar allows in its place.
+ * <p>
+ * It comes from a single parse with error recovery of the statement the cursor is in, so incomplete
+ * statements still yield a partial tree, and the other statements of a script are left out. A
+ * token that matches nothing is put in the token stream at the cursor, in place of the word being
+ * typed, so the parser always fails exactly there: the state and rule it fails in give the expected
+ * tokens and the clause, and the recovery carries on so that relations written after the cursor,
+ * such as the FROM clause when completing the select list, are part of the tree too.
+ * <p>
+ * The relations come from the {@link SymbolTable} of the tree. While a word is being typed the
+ * statement around it stays the same, so an editor can pass the context of its previous request
+ * for the document to {@link #at(ParserDfaCache, TokenBuffer, int, CompletionContext)}, which then
+ * reuses its parse and symbol table.
+ */
+public final class CompletionContext
+{
+    public enum Clause
+    {
+        SELECT,
+        FROM,
+        JOIN_CRITERIA,
+        WHERE,
+        GROUP_BY,
+        HAVING,
+        ORDER_BY,
+        OTHER,
+    }
+
+    // the text of the statement with the word at the cursor left out, and the cursor marked
+    private final String statement;
+    private final Clause clause;
+    private final String prefix;
+    private final String qualifier;
+    private final List<SymbolTable.Relation> relations;
+    private final Set<String> ctes;
+    private final SyntaxError expected;
+    private final boolean afterKeyword;
+
+    private CompletionContext(String statement, Clause clause, String prefix, String qualifier, List<SymbolTable.Relation> relations, Set<String> ctes, SyntaxError expected, boolean afterKeyword)
+    {
+        this.statement = statement;
+        this.clause = clause;
+        this.prefix = prefix;
+        this.qualifier = qualifier;
+        this.relations = relations;
+        this.ctes = ctes;
+        this.expected = expected;
+        this.afterKeyword = afterKeyword;
+    }
+
+    /**
+     * @param cursor UTF-16 offset in {@code sql}
+     */
+    public static CompletionContext at(ParserDfaCache dfaCache, String sql, int cursor)
+    {
+        return at(dfaCache, TokenBuffer.lex(dfaCache, sql), cursor);
+    }
+
+    /**
+     * @param cursor UTF-16 offset in the text of {@code buffer}
+     */
+    public static CompletionContext at(ParserDfaCache dfaCache, TokenBuffer buffer, int cursor)
+    {
+        return at(dfaCache, buffer, cursor, null);
+    }
+
+    /**
+     * @param cursor UTF-16 offset in the text of {@code buffer}
+     * @param previous the context of an earlier request for the same document, or null; it is
+     * reused, with the word now typed, when only that word changed
+     */
+    public static CompletionContext at(ParserDfaCache dfaCache, TokenBuffer buffer, int cursor, CompletionContext previous)
+    {
+        return at(dfaCache, buffer, cursor, previous, () -> {});
+    }
+
+    /**
+     * @param checkpoint runs at regular intervals during the parse, which is abandoned when it throws
+     */
+    public static CompletionContext at(ParserDfaCache dfaCache, TokenBuffer buffer, int cursor, CompletionContext previous, Runnable checkpoint)
+    {
+        return at(dfaCache, buffer, cursor, previous, checkpoint, false);
+    }
+
+    /**
+     * @param partialKeywords take a keyword that ends at the cursor as still being typed, like an
+     * identifier, as {@code AutoSuggester} does; otherwise it is complete, and the context is for
+     * what follows it
+     */
+    public static CompletionContext at(ParserDfaCache dfaCache, TokenBuffer buffer, int cursor, CompletionContext previous, Runnable checkpoint, boolean partialKeywords)
+    {
+        String sql = buffer.getText();
+        int cursorIndex = sql.codePointCount(0, cursor);
+        // only the statement around the cursor is parsed, as the parser stops at the end of the first
+        // one; the stream below numbers the tokens differently from the buffer
+        List<Token> statementTokens = statementAt(buffer.getTokens(), cursorIndex);
+        List<Token> tokens = new ArrayList<>(statementTokens.size() + 1);
+        for (Token token : statementTokens) {
+            tokens.add(new CommonToken(token));
+        }
+
+        // the word being typed is left out, and the cursor token takes its place
+        int insertAt = 0;
+        while (insertAt < tokens.size() && tokens.get(insertAt).getStopIndex() < cursorIndex) {
+            insertAt++;
+        }
+        String prefix = "";
+        if (insertAt < tokens.size() && tokens.get(insertAt).getStartIndex() < cursorIndex && isWord(tokens.get(insertAt))) {
+            prefix = partial(tokens.get(insertAt), cursorIndex);
+            tokens.remove(insertAt);
+        }
+        boolean afterKeyword = false;
+        if (prefix.isEmpty() && insertAt > 0 && tokens.get(insertAt - 1).getStopIndex() == cursorIndex - 1) {
+            // an identifier right before the cursor is taken as still being typed, a keyword as
+            // complete unless asked otherwise
+            Token before = tokens.get(insertAt - 1);
+            afterKeyword = isWord(before) && SqlBaseLexer.VOCABULARY.getLiteralName(before.getType()) != null;
+            if (before.getType() == SqlBaseLexer.IDENTIFIER || (afterKeyword && partialKeywords)) {
+                insertAt--;
+                prefix = tokens.remove(insertAt).getText();
+            }
+        }
+        String qualifier = null;
+        Token previous = previousToken(tokens, insertAt);
+        if (previous != null && previous.getText().equals(".")) {
+            Token name = previousToken(tokens, tokens.indexOf(previous));
+            if (name != null && isWord(name)) {
+                qualifier = name.getText();
+            }
+        }
+        CommonToken cursorToken = new CommonToken(SqlBaseLexer.UNRECOGNIZED, "<cursor>");
+        cursorToken.setStartIndex(cursorIndex);
+        cursorToken.setStopIndex(cursorIndex - 1);
+        tokens.add(insertAt, cursorToken);
+
+        StringBuilder statement = new StringBuilder();
+        for (Token token : tokens) {
+            statement.append(token == cursorToken ? "\0" : token.getText());
+        }
+        if (previous != null && previous.statement.contentEquals(statement)) {
+            return new CompletionContext(previous.statement, previous.clause, prefix, previous.qualifier, previous.relations, previous.ctes, previous.expected, afterKeyword);
+        }
+
+        SqlBaseParser parser = new SqlBaseParser(new CommonTokenStream(new ListTokenSource(tokens)));
+        dfaCache.initialize(parser);
+        CursorListener listener = new CursorListener(cursorToken);
+        parser.setErrorHandler(new CursorErrorStrategy(listener));
+        parser.removeErrorListeners();
+        parser.addErrorListener(listener);
+        parser.addParseListener(new CheckpointListener(checkpoint));
+        ParserRuleContext tree = parser.singleStatement();
+
+        if (listener.context == null) {
+            return new CompletionContext(statement.toString(), Clause.OTHER, prefix, qualifier, List.of(), Set.of(), listener.expected, afterKeyword);
+        }
+        return new CompletionContext(
+                statement.toString(),
+                clause(listener.context, cursorIndex),
+                prefix,
+                qualifier,
+                Collections.unmodifiableList(relations(listener.context, SymbolTable.of(tree))),
+                Collections.unmodifiableSet(ctes(listener.context)),
+                listener.expected,
+                afterKeyword);
+    }
+
+    public Clause getClause()
+    {
+        return clause;
+    }
+
+    /**
+     * The part of the word at the cursor that is already typed, or the empty string.
+     */
+    public String getPrefix()
+    {
+        return prefix;
+    }
+
+    /**
+     * The name before the dot, when completing {@code qualifier.prefix}, or null.
+     */
+    public String getQualifier()
+    {
+        return qualifier;
+    }
+
+    /**
+     * Relations visible at the cursor, those of the innermost query first.
+     */
+    public List<SymbolTable.Relation> getRelations()
+    {
+        return relations;
+    }
+
+    /**
+     * Aliases, or names of relations without one, visible at the cursor.
+     */
+    public List<String> getVisibleAliases()
+    {
+        List<String> aliases = new ArrayList<>();
+        for (SymbolTable.Relation relation : relations) {
+            if (relation.alias != null) {
+                aliases.add(relation.alias);
+            }
+            else if (relation.name != null) {
+                aliases.add(relation.name.substring(relation.name.lastIndexOf('.') + 1));
+            }
+        }
+        return aliases;
+    }
+
+    public Set<String> getCtes()
+    {
+        return ctes;
+    }
+
+    /**
+     * The tokens the grammar allows at the cursor, or null when it could not be determined.
+     */
+    public SyntaxError getExpected()
+    {
+        return expected;
+    }
+
+    /**
+     * The tokens of the statement that contains the cursor, split at semicolons as {@link Document}
+     * splits a script: a semicolon ends the statement it follows, so a cursor right after one is in
+     * the next statement.
+     */
+    private static List<Token> statementAt(List<Token> tokens, int cursorIndex)
+    {
+        int start = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (token.getStartIndex() == token.getStopIndex() && token.getText().equals(";")) {
+                if (token.getStopIndex() >= cursorIndex) {
+                    return tokens.subList(start, i);
+                }
+                start = i + 1;
+            }
+        }
+        return tokens.subList(start, tokens.size());
+    }
+
+    /**
+     * Whether a keyword ends at the cursor, which the context took as complete. The expected tokens
+     * are then those after it; a context with {@code partialKeywords} has those that it may be the
+     * start of.
+     */
+    public boolean isAfterKeyword()
+    {
+        return afterKeyword;
+    }
+
+    private static boolean isWord(Token token)
+    {
+        String text = token.getText();
+        return !text.isEmpty() && (Character.isLetter(text.charAt(0)) || text.charAt(0) == '_' || text.charAt(0) == '"');
+    }
+
+    private static String partial(Token token, int cursorIndex)
+    {
+        String text = token.getText();
+        return text.substring(0, text.offsetByCodePoints(0, cursorIndex - token.getStartIndex()));
+    }
+
+    private static Token previousToken(List<Token> tokens, int index)
+    {
+        for (int i = index - 1; i >= 0; i--) {
+            if (tokens.get(i).getChannel() == Token.DEFAULT_CHANNEL) {
+                return tokens.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The clause of the innermost query the cursor is in, from the rules around it, or the clause
+     * keyword before it when the parser failed between clauses.
+     */
+    private static Clause clause(ParserRuleContext context, int cursorIndex)
+    {
+        ParseTree child = lastChildBefore(context, cursorIndex);
+        for (ParserRuleContext node = context; node != null; child = node, node = node.getParent()) {
+            if (node instanceof SqlBaseParser.SelectItemContext) {
+                return Clause.SELECT;
+            }
+            if (node instanceof SqlBaseParser.JoinCriteriaContext) {
+                return Clause.JOIN_CRITERIA;
+            }
+            if (node instanceof SqlBaseParser.RelationContext || node instanceof SqlBaseParser.AliasedRelationContext) {
+                return Clause.FROM;
+            }
+            if (node instanceof SqlBaseParser.GroupByContext) {
+                return Clause.GROUP_BY;
+            }
+            if (node instanceof SqlBaseParser.SortItemContext) {
+                return Clause.ORDER_BY;
+            }
+            if (node instanceof SqlBaseParser.QuerySpecificationContext) {
+                SqlBaseParser.QuerySpecificationContext specification = (SqlBaseParser.QuerySpecificationContext) node;
+                if (child != null && child == specification.where) {
+                    return Clause.WHERE;
+                }
+                if (child != null && child == specification.having) {
+                    return Clause.HAVING;
+                }
+                return clauseOfKeyword(node, cursorIndex);
+            }
+            if (node instanceof SqlBaseParser.QueryNoWithContext) {
+                return clauseOfKeyword(node, cursorIndex);
+            }
+        }
+        return Clause.OTHER;
+    }
+
+    private static Clause clauseOfKeyword(ParserRuleContext node, int cursorIndex)
+    {
+        for (int i = node.getChildCount() - 1; i >= 0; i--) {
+            ParseTree child = node.getChild(i);
+            if (start(child) >= cursorIndex) {
+                continue;
+            }
+            if (child instanceof TerminalNode) {
+                switch (((TerminalNode) child).getSymbol().getType()) {
+                    case SqlBaseLexer.SELECT:
+                        return Clause.SELECT;
+                    case SqlBaseLexer.FROM:
+                        return Clause.FROM;
+                    case SqlBaseLexer.WHERE:
+                        return Clause.WHERE;
+                    case SqlBaseLexer.BY:
+                        return node instanceof SqlBaseParser.QueryNoWithContext ? Clause.ORDER_BY : Clause.GROUP_BY;
+                    case SqlBaseLexer.HAVING:
+                        return Clause.HAVING;
+                    default:
+                        break;
+                }
+            }
+            else if (child instanceof SqlBaseParser.SelectItemContext) {
+                return Clause.SELECT;
+            }
+            else if (child instanceof SqlBaseParser.RelationContext) {
+                return Clause.FROM;
+            }
+            else if (child instanceof SqlBaseParser.GroupByContext) {
+                return Clause.GROUP_BY;
+            }
+            else if (child instanceof SqlBaseParser.SortItemContext) {
+                return Clause.ORDER_BY;
+            }
+            else if (child instanceof SqlBaseParser.BooleanExpressionContext && node instanceof SqlBaseParser.QuerySpecificationContext) {
+                return child == ((SqlBaseParser.QuerySpecificationContext) node).having ? Clause.HAVING : Clause.WHERE;
+            }
+        }
+        return Clause.OTHER;
+    }
+
+    private static ParseTree lastChildBefore(ParserRuleContext node, int cursorIndex)
+    {
+        ParseTree last = null;
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (start(node.getChild(i)) < cursorIndex) {
+                last = node.getChild(i);
+            }
+        }
+        return last;
+    }
+
+    private static int start(ParseTree tree)
+    {
+        if (tree instanceof TerminalNode) {
+            return ((TerminalNode) tree).getSymbol().getStartIndex();
+        }
+        Token start = ((ParserRuleContext) tree).getStart();
+        return start == null ? Integer.MAX_VALUE : start.getStartIndex();
+    }
+
+    /**
+     * Relations of every query around the cursor, from the innermost one out, as subqueries can
+     * refer to the relations of the queries they are in.
+     */
+    private static List<SymbolTable.Relation> relations(ParserRuleContext context, SymbolTable symbols)
+    {
+        List<SymbolTable.Relation> relations = new ArrayList<>();
+        ParseTree child = null;
+        for (ParserRuleContext node = context; node != null; child = node, node = node.getParent()) {
+            if (node instanceof SqlBaseParser.QuerySpecificationContext) {
+                relations.addAll(symbols.relations(node));
+            }
+            else if (node instanceof SqlBaseParser.QueryNoWithContext && child != ((SqlBaseParser.QueryNoWithContext) node).queryTerm()) {
+                // ORDER BY sees the relations of the query it orders
+                relations.addAll(symbols.relations(node));
+            }
+        }
+        return relations;
+    }
+
+    private static Set<String> ctes(ParserRuleContext context)
+    {
+        Set<String> ctes = new LinkedHashSet<>();
+        for (RuleContext node = context; node != null; node = node.parent) {
+            if (node instanceof SqlBaseParser.QueryContext && ((SqlBaseParser.QueryContext) node).with() != null) {
+                for (SqlBaseParser.NamedQueryContext namedQuery : ((SqlBaseParser.QueryContext) node).with().namedQuery()) {
+                    if (namedQuery.name != null) {
+                        ctes.add(namedQuery.name.getText());
+                    }
+                }
+            }
+        }
+        return ctes;
+    }
+
+    private static final class CursorListener
+            extends BaseErrorListener
+    {
+        private final Token cursor;
+        private ParserRuleContext context;
+        private SyntaxError expected;
+
+        CursorListener(Token cursor)
+        {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String message, RecognitionException e)
+        {
+            if (offendingSymbol != cursor || context != null) {
+                return;
+            }
+            Parser parser = (Parser) recognizer;
+            if (e != null && e.getOffendingState() >= 0 && e.getCtx() instanceof ParserRuleContext) {
+                context = (ParserRuleContext) e.getCtx();
+                expected = SyntaxError.of(cursor, e.getOffendingState(), context);
+            }
+            else {
+                context = parser.getContext();
+                expected = SyntaxError.of(cursor, parser.getState(), context);
+            }
+        }
+    }
+
+    /**
+     * Runs the checkpoint and checks the current {@link Deadline} every {@link #INTERVAL} rules the
+     * parser enters, so that a long statement can be abandoned in the middle of its parse. The parser
+     * only checks the deadline itself when a prediction misses its DFA.
+     */
+    private static final class CheckpointListener
+            implements ParseTreeListener
+    {
+        private static final int INTERVAL = 64;
+
+        private final Runnable checkpoint;
+        private int rules;
+
+        CheckpointListener(Runnable checkpoint)
+        {
+            this.checkpoint = checkpoint;
+        }
+
+        @Override
+        public void enterEveryRule(ParserRuleContext context)
+        {
+            if (++rules % INTERVAL == 0) {
+                checkpoint.run();
+                Deadline.checkCurrent("completion");
+            }
+        }
+
+        @Override
+        public void exitEveryRule(ParserRuleContext context) {}
+
+        @Override
+        public void visitTerminal(TerminalNode node) {}
+
+        @Override
+        public void visitErrorNode(ErrorNode node) {}
+    }
+
+    /**
+     * Reports the error at the cursor even while recovering from an earlier one, and does not skip
+     * the cursor before it was reported.
+     */
+    private static final class CursorErrorStrategy
+            extends DefaultErrorStrategy
+    {
+        private final CursorListener listener;
+
+        CursorErrorStrategy(CursorListener listener)
+        {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean inErrorRecoveryMode(Parser recognizer)
+        {
+            return super.inErrorRecoveryMode(recognizer) && !atCursor(recognizer);
+        }
+
+        @Override
+        protected void consumeUntil(Parser recognizer, IntervalSet set)
+        {
+            int type = recognizer.getInputStream().LA(1);
+            while (type != Token.EOF && !set.contains(type) && !atCursor(recognizer)) {
+                recognizer.consume();
+                type = recognizer.getInputStream().LA(1);
+            }
+        }
+
+        private boolean atCursor(Parser recognizer)
+        {
+            return listener.context == null && recognizer.getCurrentToken() == listener.cursor;
+        }
+    }
+}
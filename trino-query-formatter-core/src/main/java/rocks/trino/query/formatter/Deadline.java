@@ -0,0 +1,84 @@
+package rocks.trino.query.formatter;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A time limit for one request. Work runs with the deadline of its thread, see {@link #run}, and
+ * checks it cooperatively: the lexer and parser of {@link ParserDfaCache} check it while they
+ * predict and match tokens, the completion parse every few rules, and the formatter at every clause
+ * and every few hundred expression nodes, so a pathological input fails
+ * with a {@link DeadlineExceededException} instead of holding a thread for seconds.
+ */
+public final class Deadline
+{
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos;
+    private final long timeoutNanos;
+
+    private Deadline(long startNanos, long timeoutNanos)
+    {
+        this.startNanos = startNanos;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    public static Deadline after(Duration timeout)
+    {
+        checkArgument(!timeout.isNegative(), "timeout is negative");
+        return new Deadline(System.nanoTime(), timeout.toNanos());
+    }
+
+    /**
+     * The deadline of the current thread, or null when it has none.
+     */
+    public static Deadline current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs the task with this deadline as the deadline of the current thread.
+     */
+    public <T> T run(Supplier<T> task)
+    {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.get();
+        }
+        finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    public boolean isExpired()
+    {
+        return System.nanoTime() - startNanos > timeoutNanos;
+    }
+
+    /**
+     * @param phase what the request was doing, reported when the deadline has passed
+     * @throws DeadlineExceededException if the deadline has passed
+     */
+    public void check(String phase)
+    {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (elapsedNanos > timeoutNanos) {
+            throw new DeadlineExceededException(phase, Duration.ofNanos(elapsedNanos), Duration.ofNanos(timeoutNanos));
+        }
+    }
+
+    /**
+     * Checks the deadline of the current thread, if any.
+     */
+    public static void checkCurrent(String phase)
+    {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null) {
+            deadline.check(phase);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package rocks.trino.query.formatter;
+
+import java.time.Duration;
+
+public class DeadlineExceededException
+        extends RuntimeException
+{
+    private final String phase;
+    private final Duration elapsed;
+    private final Duration timeout;
+
+    public DeadlineExceededException(String phase, Duration elapsed, Duration timeout)
+    {
+        super(String.format("Deadline of %sms exceeded after %sms while in %s", timeout.toMillis(), elapsed.toMillis(), phase));
+        this.phase = phase;
+        this.elapsed = elapsed;
+        this.timeout = timeout;
+    }
+
+    public String getPhase()
+    {
+        return phase;
+    }
+
+    public Duration getElapsed()
+    {
+        return elapsed;
+    }
+
+    public Duration getTimeout()
+    {
+        return timeout;
+    }
+}
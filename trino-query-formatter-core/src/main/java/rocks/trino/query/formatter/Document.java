@@ -0,0 +1,247 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.CaseInsensitiveStream;
+import io.trino.sql.parser.SqlBaseLexer;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * The text of a SQL script being edited, split into statements at top-level semicolons.
+ * <p>
+ * The statement boundaries come from the lexer, so semicolons in strings, quoted identifiers and
+ * comments do not split. After an edit only the damaged region is lexed again: lexing starts at
+ * the statement containing the edit and stops at the first semicolon after the edit that ends a
+ * statement which was there before, since the lexer has no state across statement boundaries and
+ * the text after it is unchanged. The lexer reads the text in place, so an edit copies no more than
+ * the statements it lexes again. An earlier statement with an unterminated quote or comment is
+ * lexed again as well, because the edit may close it. Not thread-safe.
+ */
+public final class Document
+{
+    private final Rope text;
+    // Segments tile the text: each one runs up to and including the semicolon that ends it
+    private final List<Segment> segments = new ArrayList<>();
+    private int lastRelexedLength;
+
+    public Document(String text)
+    {
+        this.text = new Rope(text);
+        lex(0, Integer.MAX_VALUE, List.of());
+    }
+
+    public String getText()
+    {
+        return text.toString();
+    }
+
+    public int length()
+    {
+        return text.length();
+    }
+
+    /**
+     * All segments, including those with only whitespace and comments, in document order.
+     */
+    public List<Segment> getSegments()
+    {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * Statements that contain more than whitespace and comments, in document order.
+     */
+    public List<Segment> getStatements()
+    {
+        return segments.stream()
+                .filter(segment -> !segment.blank)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Statements that overlap the characters from {@code start} (inclusive) to {@code end}
+     * (exclusive), or that contain {@code start} when the range is empty.
+     */
+    public List<Segment> getStatements(int start, int end)
+    {
+        checkPositionIndexes(start, end, text.length());
+        List<Segment> statements = new ArrayList<>();
+        for (int i = segmentAt(start); i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            if (segment.start >= Math.max(end, start + 1)) {
+                break;
+            }
+            if (!segment.blank && segment.end > start) {
+                statements.add(segment);
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * Number of characters lexed by the last {@link #replace}.
+     */
+    public int getLastRelexedLength()
+    {
+        return lastRelexedLength;
+    }
+
+    public int offset(Position position)
+    {
+        return text.offset(position.line, position.character);
+    }
+
+    public Position position(int offset)
+    {
+        int[] position = text.position(offset);
+        return new Position(position[0], position[1]);
+    }
+
+    /**
+     * Replaces the characters from {@code start} (inclusive) to {@code end} (exclusive).
+     */
+    public void replace(int start, int end, String replacement)
+    {
+        checkPositionIndexes(start, end, text.length());
+        int delta = replacement.length() - (end - start);
+        text.replace(start, end, replacement);
+
+        int first = segmentAt(start);
+        for (int i = 0; i < first; i++) {
+            if (segments.get(i).unterminated) {
+                first = i;
+                break;
+            }
+        }
+        List<Segment> following = new ArrayList<>();
+        for (Segment segment : segments.subList(first + 1, segments.size())) {
+            if (segment.start >= end) {
+                following.add(segment.shift(delta));
+            }
+        }
+        int lexStart = segments.get(first).start;
+        segments.subList(first, segments.size()).clear();
+        lex(lexStart, start + replacement.length(), following);
+    }
+
+    /**
+     * Lexes from {@code start} and appends the segments found, until a statement ends at or after
+     * {@code editEnd} where one of {@code following} starts, which are then kept as they are.
+     */
+    private void lex(int start, int editEnd, List<Segment> following)
+    {
+        // the stream reads the rope in place, and its indexes are offsets in the whole text
+        SqlBaseLexer lexer = new SqlBaseLexer(new CaseInsensitiveStream(text.charStream(start)));
+        lexer.removeErrorListeners();
+
+        int segmentStart = start;
+        int statementStart = -1;
+        boolean unterminated = false;
+        int slashEnd = -1;
+        int next = 0;
+        for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+            int offset = token.getStopIndex() + 1;
+            if (token.getStartIndex() != token.getStopIndex() || !token.getText().equals(";")) {
+                if (statementStart < 0 && token.getChannel() == Token.DEFAULT_CHANNEL) {
+                    statementStart = token.getStartIndex();
+                }
+                // a lone quote, or an unclosed comment, which the lexer splits into a slash and an
+                // asterisk, could start a longer token later; the slash of a division cannot
+                unterminated |= token.getType() == SqlBaseLexer.UNRECOGNIZED
+                        || (token.getType() == SqlBaseLexer.ASTERISK && token.getStartIndex() == slashEnd);
+                slashEnd = token.getType() == SqlBaseLexer.SLASH ? offset : -1;
+                continue;
+            }
+
+            segments.add(new Segment(segmentStart, statementStart < 0 ? offset : statementStart, offset, text.substring(segmentStart, offset), unterminated));
+            segmentStart = offset;
+            statementStart = -1;
+            unterminated = false;
+
+            while (next < following.size() && following.get(next).start < offset) {
+                next++;
+            }
+            if (offset >= editEnd && next < following.size() && following.get(next).start == offset) {
+                segments.addAll(following.subList(next, following.size()));
+                lastRelexedLength = offset - start;
+                return;
+            }
+        }
+        int end = text.length();
+        segments.add(new Segment(segmentStart, statementStart < 0 ? end : statementStart, end, text.substring(segmentStart, end), unterminated));
+        lastRelexedLength = end - start;
+    }
+
+    private int segmentAt(int offset)
+    {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments.get(middle).start <= offset) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    public static final class Segment
+    {
+        public final int start;
+        // where the first token of the statement starts, after leading whitespace and comments
+        public final int statementStart;
+        public final int end;
+        public final String sql;
+        private final transient boolean blank;
+        private final transient boolean unterminated;
+
+        private Segment(int start, int statementStart, int end, String sql, boolean unterminated)
+        {
+            this.start = start;
+            this.statementStart = statementStart;
+            this.end = end;
+            this.sql = sql;
+            // whitespace, comments and the semicolon only
+            this.blank = statementStart == end;
+            this.unterminated = unterminated;
+        }
+
+        private Segment shift(int delta)
+        {
+            return new Segment(start + delta, statementStart + delta, end + delta, sql, unterminated);
+        }
+    }
+
+    public static final class Range
+    {
+        public final Position start;
+        public final Position end;
+
+        public Range(Position start, Position end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    public static final class Position
+    {
+        // zero-based, like LSP positions
+        public final int line;
+        public final int character;
+
+        public Position(int line, int character)
+        {
+            this.line = line;
+            this.character = character;
+        }
+    }
+}
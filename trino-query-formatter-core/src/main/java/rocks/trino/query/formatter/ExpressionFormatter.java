@@ -50,6 +50,7 @@ import io.trino.sql.tree.IsNullPredicate;
 import io.trino.sql.tree.LambdaArgumentDeclaration;
 import io.trino.sql.tree.LambdaExpression;
 import io.trino.sql.tree.LikePredicate;
+import io.trino.sql.tree.Literal;
 import io.trino.sql.tree.LogicalBinaryExpression;
 import io.trino.sql.tree.LongLiteral;
 import io.trino.sql.tree.Node;
@@ -106,7 +107,12 @@ public final class ExpressionFormatter
 
     public static String formatExpression(Expression expression, Integer indent)
     {
-        return new Formatter().process(expression, indent);
+        return formatExpression(expression, indent, FormatOptions.DEFAULT);
+    }
+
+    public static String formatExpression(Expression expression, Integer indent, FormatOptions options)
+    {
+        return new Formatter(options).process(expression, indent);
     }
 
     private static String formatIdentifier(String s)
@@ -117,14 +123,54 @@ public final class ExpressionFormatter
     public static class Formatter
             extends AstVisitor<String, Integer>
     {
+        // a single expression can be huge, such as an IN list of thousands of values, so the
+        // deadline is checked every DEADLINE_INTERVAL nodes
+        private static final int DEADLINE_INTERVAL = 256;
+
+        private final FormatOptions options;
+        private final SourceMap.Builder sourceMap;
+        private final Deadline deadline = Deadline.current();
+        private int visited;
         private boolean shouldIndent = true;
 
+        public Formatter()
+        {
+            this(FormatOptions.DEFAULT);
+        }
+
+        public Formatter(FormatOptions options)
+        {
+            this(options, null);
+        }
+
+        /**
+         * @param sourceMap when not null, the text of every node with a location is marked for it
+         */
+        Formatter(FormatOptions options, SourceMap.Builder sourceMap)
+        {
+            this.options = options;
+            this.sourceMap = sourceMap;
+        }
+
         private Integer maybeIndent(Integer indent) {
             return shouldIndent
                     ? indent + 4
                     : indent;
         }
 
+        @Override
+        public String process(Node node, Integer indent)
+        {
+            if (deadline != null && ++visited % DEADLINE_INTERVAL == 0) {
+                deadline.check("formatting");
+            }
+            String formatted = super.process(node, indent);
+            if (sourceMap != null && node.getLocation().isPresent()) {
+                return sourceMap.mark(node, formatted);
+            }
+            return formatted;
+        }
+
         @Override
         protected String visitNode(Node node, Integer indent)
         {
@@ -203,18 +249,27 @@ public final class ExpressionFormatter
         @Override
         protected String visitStringLiteral(StringLiteral node, Integer indent)
         {
+            if (options.isLiteralPlaceholders()) {
+                return "?";
+            }
             return formatStringLiteral(node.getValue());
         }
 
         @Override
         protected String visitCharLiteral(CharLiteral node, Integer indent)
         {
+            if (options.isLiteralPlaceholders()) {
+                return "CHAR ?";
+            }
             return "CHAR " + formatStringLiteral(node.getValue());
         }
 
         @Override
         protected String visitBinaryLiteral(BinaryLiteral node, Integer indent)
         {
+            if (options.isLiteralPlaceholders()) {
+                return "?";
+            }
             return "X'" + node.toHexString() + "'";
         }
 
@@ -235,7 +290,7 @@ public final class ExpressionFormatter
         {
             ImmutableList.Builder<String> valueStrings = ImmutableList.builder();
             for (Expression value : node.getValues()) {
-                valueStrings.add(formatSql(value));
+                valueStrings.add(formatSql(value, options));
             }
             return "ARRAY[" + Joiner.on(",").join(valueStrings.build()) + "]";
         }
@@ -243,24 +298,33 @@ public final class ExpressionFormatter
         @Override
         protected String visitSubscriptExpression(SubscriptExpression node, Integer indent)
         {
-            return formatSql(node.getBase()) + "[" + formatSql(node.getIndex()) + "]";
+            return formatSql(node.getBase(), options) + "[" + formatSql(node.getIndex(), options) + "]";
         }
 
         @Override
         protected String visitLongLiteral(LongLiteral node, Integer indent)
         {
+            if (options.isLiteralPlaceholders()) {
+                return "?";
+            }
             return Long.toString(node.getValue());
         }
 
         @Override
         protected String visitDoubleLiteral(DoubleLiteral node, Integer indent)
         {
+            if (options.isLiteralPlaceholders()) {
+                return "?";
+            }
             return doubleFormatter.get().format(node.getValue());
         }
 
         @Override
         protected String visitDecimalLiteral(DecimalLiteral node, Integer indent)
         {
+            if (options.isLiteralPlaceholders()) {
+                return "?";
+            }
             // TODO return node value without "DECIMAL '..'" when FeaturesConfig#parseDecimalLiteralsAsDouble switch is removed
             return "DECIMAL '" + node.getValue() + "'";
         }
@@ -268,18 +332,27 @@ public final class ExpressionFormatter
         @Override
         protected String visitGenericLiteral(GenericLiteral node, Integer indent)
         {
+            if (options.isLiteralPlaceholders()) {
+                return node.getType().toUpperCase(Locale.ENGLISH) + " ?";
+            }
             return node.getType() + " " + formatStringLiteral(node.getValue());
         }
 
         @Override
         protected String visitTimeLiteral(TimeLiteral node, Integer indent)
         {
+            if (options.isLiteralPlaceholders()) {
+                return "TIME ?";
+            }
             return "TIME '" + node.getValue() + "'";
         }
 
         @Override
         protected String visitTimestampLiteral(TimestampLiteral node, Integer indent)
         {
+            if (options.isLiteralPlaceholders()) {
+                return "TIMESTAMP ?";
+            }
             return "TIMESTAMP '" + node.getValue() + "'";
         }
 
@@ -292,12 +365,17 @@ public final class ExpressionFormatter
         @Override
         protected String visitIntervalLiteral(IntervalLiteral node, Integer indent)
         {
-            String sign = (node.getSign() == IntervalLiteral.Sign.NEGATIVE) ? " -" : "";
             StringBuilder builder = new StringBuilder()
-                    .append("INTERVAL")
-                    .append(sign)
-                    .append(" '").append(node.getValue()).append("' ")
-                    .append(node.getStartField());
+                    .append("INTERVAL");
+            if (options.isLiteralPlaceholders()) {
+                builder.append(" ? ");
+            }
+            else {
+                String sign = (node.getSign() == IntervalLiteral.Sign.NEGATIVE) ? " -" : "";
+                builder.append(sign)
+                        .append(" '").append(node.getValue()).append("' ");
+            }
+            builder.append(node.getStartField());
 
             if (node.getEndField().isPresent()) {
                 builder.append(" TO ").append(node.getEndField().get());
@@ -308,30 +386,33 @@ public final class ExpressionFormatter
         @Override
         protected String visitSubqueryExpression(SubqueryExpression node, Integer indent)
         {
-            return "(" + formatSql(node.getQuery()) + ")";
+            return "(" + formatSql(node.getQuery(), options) + ")";
         }
 
         @Override
         protected String visitExists(ExistsPredicate node, Integer indent)
         {
-            return "(EXISTS " + formatSql(node.getSubquery()) + ")";
+            return "(EXISTS " + formatSql(node.getSubquery(), options) + ")";
         }
 
         @Override
         protected String visitIdentifier(Identifier node, Integer indent)
         {
+            String value = options.isLowerCaseIdentifiers()
+                    ? node.getValue().toLowerCase(Locale.ENGLISH)
+                    : node.getValue();
             if (!node.isDelimited()) {
-                return node.getValue();
+                return value;
             }
             else {
-                return '"' + node.getValue().replace("\"", "\"\"") + '"';
+                return '"' + value.replace("\"", "\"\"") + '"';
             }
         }
 
         @Override
         protected String visitLambdaArgumentDeclaration(LambdaArgumentDeclaration node, Integer indent)
         {
-            return formatExpression(node.getName(), indent);
+            return process(node.getName(), indent);
         }
 
         @Override
@@ -367,11 +448,11 @@ public final class ExpressionFormatter
                 arguments = "DISTINCT " + arguments;
             }
 
-            builder.append(formatName(node.getName()))
+            builder.append(formatName(node.getName(), options))
                     .append('(').append(arguments);
 
             if (node.getOrderBy().isPresent()) {
-                builder.append(' ').append(formatOrderBy(node.getOrderBy().get(), indent));
+                builder.append(' ').append(formatOrderBy(node.getOrderBy().get(), indent, options));
             }
 
             builder.append(')');
@@ -392,7 +473,7 @@ public final class ExpressionFormatter
             }
 
             if (node.getWindow().isPresent()) {
-                builder.append(" OVER ").append(formatWindow(node.getWindow().get(), indent));
+                builder.append(" OVER ").append(formatWindow(node.getWindow().get(), indent, options));
             }
 
             return builder.toString();
@@ -492,6 +573,11 @@ public final class ExpressionFormatter
         @Override
         protected String visitArithmeticUnary(ArithmeticUnaryExpression node, Integer indent)
         {
+            if (options.isLiteralPlaceholders() && node.getValue() instanceof Literal) {
+                // a negative number is a single placeholder, like any other number
+                return "?";
+            }
+
             String value = process(node.getValue(), indent);
 
             switch (node.getSign()) {
@@ -615,6 +701,10 @@ public final class ExpressionFormatter
         @Override
         protected String visitInListExpression(InListExpression node, Integer indent)
         {
+            if (options.isLiteralPlaceholders() && node.getValues().stream().allMatch(Literal.class::isInstance)) {
+                // lists of literals have the same shape regardless of their length
+                return "?";
+            }
             return joinExpressions(node.getValues());
         }
 
@@ -787,48 +877,53 @@ public final class ExpressionFormatter
 
     public static String formatOrderBy(OrderBy orderBy, Integer indent)
     {
-        return "ORDER BY " + formatSortItems(orderBy.getSortItems(), indent);
+        return formatOrderBy(orderBy, indent, FormatOptions.DEFAULT);
+    }
+
+    public static String formatOrderBy(OrderBy orderBy, Integer indent, FormatOptions options)
+    {
+        return "ORDER BY " + formatSortItems(orderBy.getSortItems(), indent, options);
     }
 
-    private static String formatSortItems(List<SortItem> sortItems, Integer indent)
+    private static String formatSortItems(List<SortItem> sortItems, Integer indent, FormatOptions options)
     {
         return Joiner.on(", ").join(sortItems.stream()
-                .map(sortItemFormatterFunction(indent))
+                .map(sortItemFormatterFunction(indent, options))
                 .iterator());
     }
 
-    private static String formatWindow(Window window, Integer indent)
+    private static String formatWindow(Window window, Integer indent, FormatOptions options)
     {
         if (window instanceof WindowReference) {
-            return formatExpression(((WindowReference) window).getName(), indent);
+            return formatExpression(((WindowReference) window).getName(), indent, options);
         }
 
-        return formatWindowSpecification((WindowSpecification) window, indent);
+        return formatWindowSpecification((WindowSpecification) window, indent, options);
     }
 
-    static String formatWindowSpecification(WindowSpecification windowSpecification, Integer indent)
+    static String formatWindowSpecification(WindowSpecification windowSpecification, Integer indent, FormatOptions options)
     {
         List<String> parts = new ArrayList<>();
 
         if (windowSpecification.getExistingWindowName().isPresent()) {
-            parts.add(formatExpression(windowSpecification.getExistingWindowName().get(), indent));
+            parts.add(formatExpression(windowSpecification.getExistingWindowName().get(), indent, options));
         }
         if (!windowSpecification.getPartitionBy().isEmpty()) {
             parts.add("PARTITION BY " + windowSpecification.getPartitionBy().stream()
-                    .map(e -> formatExpression(e, indent))
+                    .map(e -> formatExpression(e, indent, options))
                     .collect(joining(", ")));
         }
         if (windowSpecification.getOrderBy().isPresent()) {
-            parts.add(formatOrderBy(windowSpecification.getOrderBy().get(), indent));
+            parts.add(formatOrderBy(windowSpecification.getOrderBy().get(), indent, options));
         }
         if (windowSpecification.getFrame().isPresent()) {
-            parts.add(formatFrame(windowSpecification.getFrame().get(), indent));
+            parts.add(formatFrame(windowSpecification.getFrame().get(), indent, options));
         }
 
         return '(' + Joiner.on(' ').join(parts) + ')';
     }
 
-    private static String formatFrame(WindowFrame windowFrame, Integer indent)
+    private static String formatFrame(WindowFrame windowFrame, Integer indent, FormatOptions options)
     {
         StringBuilder builder = new StringBuilder();
 
@@ -837,35 +932,35 @@ public final class ExpressionFormatter
 
         if (windowFrame.getEnd().isPresent()) {
             builder.append("BETWEEN ")
-                    .append(formatFrameBound(windowFrame.getStart(), indent))
+                    .append(formatFrameBound(windowFrame.getStart(), indent, options))
                     .append(" AND ")
-                    .append(formatFrameBound(windowFrame.getEnd().get(), indent));
+                    .append(formatFrameBound(windowFrame.getEnd().get(), indent, options));
         }
         else {
-            builder.append(formatFrameBound(windowFrame.getStart(), indent));
+            builder.append(formatFrameBound(windowFrame.getStart(), indent, options));
         }
 
         return builder.toString();
     }
 
-    private static String formatFrameBound(FrameBound frameBound, Integer indent)
+    private static String formatFrameBound(FrameBound frameBound, Integer indent, FormatOptions options)
     {
         switch (frameBound.getType()) {
             case UNBOUNDED_PRECEDING:
                 return "UNBOUNDED PRECEDING";
             case PRECEDING:
-                return formatExpression(frameBound.getValue().get(), indent) + " PRECEDING";
+                return formatExpression(frameBound.getValue().get(), indent, options) + " PRECEDING";
             case CURRENT_ROW:
                 return "CURRENT ROW";
             case FOLLOWING:
-                return formatExpression(frameBound.getValue().get(), indent) + " FOLLOWING";
+                return formatExpression(frameBound.getValue().get(), indent, options) + " FOLLOWING";
             case UNBOUNDED_FOLLOWING:
                 return "UNBOUNDED FOLLOWING";
         }
         throw new IllegalArgumentException("unhandled type: " + frameBound.getType());
     }
 
-    static String formatGroupBy(List<GroupingElement> groupingElements, Integer indent)
+    static String formatGroupBy(List<GroupingElement> groupingElements, Integer indent, FormatOptions options)
     {
         ImmutableList.Builder<String> resultStrings = ImmutableList.builder();
 
@@ -874,23 +969,23 @@ public final class ExpressionFormatter
             if (groupingElement instanceof SimpleGroupBy) {
                 List<Expression> columns = groupingElement.getExpressions();
                 if (columns.size() == 1) {
-                    result = formatExpression(getOnlyElement(columns), indent);
+                    result = formatExpression(getOnlyElement(columns), indent, options);
                 }
                 else {
-                    result = formatGroupingSet(columns, indent);
+                    result = formatGroupingSet(columns, indent, options);
                 }
             }
             else if (groupingElement instanceof GroupingSets) {
                 result = format("GROUPING SETS (%s)", Joiner.on(", ").join(
                         ((GroupingSets) groupingElement).getSets().stream()
-                                .map(groupingSet -> formatGroupingSet(groupingSet, indent))
+                                .map(groupingSet -> formatGroupingSet(groupingSet, indent, options))
                                 .iterator()));
             }
             else if (groupingElement instanceof Cube) {
-                result = format("CUBE %s", formatGroupingSet(groupingElement.getExpressions(), indent));
+                result = format("CUBE %s", formatGroupingSet(groupingElement.getExpressions(), indent, options));
             }
             else if (groupingElement instanceof Rollup) {
-                result = format("ROLLUP %s", formatGroupingSet(groupingElement.getExpressions(), indent));
+                result = format("ROLLUP %s", formatGroupingSet(groupingElement.getExpressions(), indent, options));
             }
             resultStrings.add(result);
         }
@@ -902,19 +997,19 @@ public final class ExpressionFormatter
         return codePoint >= 0x20 && codePoint < 0x7F;
     }
 
-    private static String formatGroupingSet(List<Expression> groupingSet, Integer indent)
+    private static String formatGroupingSet(List<Expression> groupingSet, Integer indent, FormatOptions options)
     {
         return format("(%s)", Joiner.on(", ").join(groupingSet.stream()
-                .map(e -> formatExpression(e, indent))
+                .map(e -> formatExpression(e, indent, options))
                 .iterator()));
     }
 
-    private static Function<SortItem, String> sortItemFormatterFunction(Integer indent)
+    private static Function<SortItem, String> sortItemFormatterFunction(Integer indent, FormatOptions options)
     {
         return input -> {
             StringBuilder builder = new StringBuilder();
 
-            builder.append(formatExpression(input.getSortKey(), indent));
+            builder.append(formatExpression(input.getSortKey(), indent, options));
 
             switch (input.getOrdering()) {
                 case ASCENDING:
@@ -0,0 +1,138 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.SqlBaseParser;
+import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.NotSetTransition;
+import org.antlr.v4.runtime.atn.RuleStopState;
+import org.antlr.v4.runtime.atn.RuleTransition;
+import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.atn.WildcardTransition;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * For every state of the parser ATN, the tokens that can come next within its rule, and whether the
+ * rule can end there. The table is computed once, on first use, so that the tokens the parser
+ * expects in a state are a lookup per rule on the invocation stack rather than a walk of the ATN.
+ * <p>
+ * The {@code identifier} rule counts as a single token, {@link #IDENTIFIER}, instead of the
+ * identifier tokens and the hundreds of non-reserved keywords it accepts.
+ */
+public final class FollowSets
+{
+    /**
+     * Bit of the {@code identifier} rule; token types are offset by one, so that {@link Token#EOF}
+     * is bit 0.
+     */
+    public static final int IDENTIFIER = SqlBaseParser.VOCABULARY.getMaxTokenType() + 2;
+
+    private final ATN atn;
+    private final BitSet[] tokens;
+    private final boolean[] ruleEnds;
+
+    private FollowSets(ATN atn)
+    {
+        this.atn = atn;
+        this.tokens = new BitSet[atn.states.size()];
+        this.ruleEnds = new boolean[atn.states.size()];
+        for (ATNState state : atn.states) {
+            if (state != null) {
+                compute(state);
+            }
+        }
+    }
+
+    public static FollowSets get()
+    {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Tokens the parser accepts next in {@code state}, with {@code context} as its rule invocation
+     * stack, as bits of token type plus one, and {@link #IDENTIFIER}.
+     */
+    public BitSet expected(int state, RuleContext context)
+    {
+        BitSet expected = new BitSet();
+        while (true) {
+            expected.or(tokens[state]);
+            if (!ruleEnds[state]) {
+                return expected;
+            }
+            if (context == null || context.invokingState < 0) {
+                expected.set(Token.EOF + 1);
+                return expected;
+            }
+            state = ((RuleTransition) atn.states.get(context.invokingState).transition(0)).followState.stateNumber;
+            context = context.parent;
+        }
+    }
+
+    private void compute(ATNState state)
+    {
+        if (tokens[state.stateNumber] != null) {
+            return;
+        }
+        BitSet follow = new BitSet();
+        if (state.ruleIndex == SqlBaseParser.RULE_identifier || state.ruleIndex == SqlBaseParser.RULE_nonReserved) {
+            // within an identifier, the rest of it is the identifier
+            follow.set(IDENTIFIER);
+            tokens[state.stateNumber] = follow;
+            ruleEnds[state.stateNumber] = true;
+            return;
+        }
+        ruleEnds[state.stateNumber] = walk(state, follow, new HashSet<>());
+        tokens[state.stateNumber] = follow;
+    }
+
+    /**
+     * Adds the tokens reachable from {@code state} within its rule to {@code follow}, and returns
+     * whether the end of the rule is reachable. Rules it invokes are looked up, which computes them
+     * first; a grammar ANTLR accepts has no rule that invokes itself before consuming a token.
+     */
+    private boolean walk(ATNState state, BitSet follow, Set<Integer> visited)
+    {
+        if (!visited.add(state.stateNumber)) {
+            return false;
+        }
+        if (state instanceof RuleStopState) {
+            return true;
+        }
+        boolean ruleEnd = false;
+        for (Transition transition : state.getTransitions()) {
+            if (transition instanceof RuleTransition) {
+                RuleTransition rule = (RuleTransition) transition;
+                if (rule.ruleIndex == SqlBaseParser.RULE_identifier) {
+                    follow.set(IDENTIFIER);
+                    ruleEnd |= walk(rule.followState, follow, visited);
+                }
+                else {
+                    compute(rule.target);
+                    follow.or(tokens[rule.target.stateNumber]);
+                    if (ruleEnds[rule.target.stateNumber]) {
+                        ruleEnd |= walk(rule.followState, follow, visited);
+                    }
+                }
+            }
+            else if (transition.isEpsilon()) {
+                ruleEnd |= walk(transition.target, follow, visited);
+            }
+            else if (!(transition instanceof NotSetTransition) && !(transition instanceof WildcardTransition)) {
+                for (int type : transition.label().toList()) {
+                    follow.set(type + 1);
+                }
+            }
+        }
+        return ruleEnd;
+    }
+
+    private static final class Holder
+    {
+        private static final FollowSets INSTANCE = new FollowSets(SqlBaseParser._ATN);
+    }
+}
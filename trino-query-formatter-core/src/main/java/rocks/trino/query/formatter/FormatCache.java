@@ -0,0 +1,83 @@
+package rocks.trino.query.formatter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.trino.sql.tree.Node;
+
+import java.util.Objects;
+
+/**
+ * Bounded cache of formatted subtrees that can be shared between {@link SqlFormatter#formatSql(Node, FormatCache)}
+ * calls, so queries and subqueries repeated across requests are only formatted once. Entries are keyed by
+ * structural hash and signature and hold no AST nodes, so cached statements do not outlive their request.
+ * Safe for concurrent use.
+ */
+public final class FormatCache
+{
+    private final Cache<Key, String> cache;
+
+    public FormatCache(long maximumSize)
+    {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    public long size()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Number of lookups that were served from the cache.
+     */
+    public long hitCount()
+    {
+        return cache.stats().hitCount();
+    }
+
+    String get(Key key)
+    {
+        return cache.getIfPresent(key);
+    }
+
+    void put(Key key, String formatted)
+    {
+        cache.put(key, formatted);
+    }
+
+    static final class Key
+    {
+        private final long hash;
+        // computed independently of the hash, so a collision of both is needed to serve the wrong text
+        private final long signature;
+        private final int indent;
+
+        Key(long hash, long signature, int indent)
+        {
+            this.hash = hash;
+            this.signature = signature;
+            this.indent = indent;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && signature == key.signature && indent == key.indent;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(hash, indent);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package rocks.trino.query.formatter;
+
+/**
+ * Controls how {@link SqlFormatter} and {@link ExpressionFormatter} render a statement.
+ */
+public final class FormatOptions
+{
+    /**
+     * Renders statements as written; the output parses back to an equal statement.
+     */
+    public static final FormatOptions DEFAULT = new FormatOptions(false, false);
+
+    /**
+     * Renders the shape of a statement: literals become {@code ?}, lists of literals collapse to a
+     * single {@code ?}, and identifiers and names are lower-cased. The output is meant for grouping
+     * statements and does not necessarily parse.
+     */
+    public static final FormatOptions CANONICAL = new FormatOptions(true, true);
+
+    private final boolean literalPlaceholders;
+    private final boolean lowerCaseIdentifiers;
+
+    private FormatOptions(boolean literalPlaceholders, boolean lowerCaseIdentifiers)
+    {
+        this.literalPlaceholders = literalPlaceholders;
+        this.lowerCaseIdentifiers = lowerCaseIdentifiers;
+    }
+
+    public boolean isLiteralPlaceholders()
+    {
+        return literalPlaceholders;
+    }
+
+    public boolean isLowerCaseIdentifiers()
+    {
+        return lowerCaseIdentifiers;
+    }
+}
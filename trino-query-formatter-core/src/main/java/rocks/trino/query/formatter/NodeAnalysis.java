@@ -0,0 +1,20 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.tree.Node;
+
+/**
+ * An analysis that observes the nodes of a statement during a shared {@link AnalysisWalker} traversal.
+ * Implementations must not recurse into children themselves; the walker visits every node.
+ */
+public interface NodeAnalysis
+{
+    /**
+     * Called before any of the node's children are visited.
+     */
+    default void enter(Node node) {}
+
+    /**
+     * Called after all of the node's children have been visited.
+     */
+    default void exit(Node node) {}
+}
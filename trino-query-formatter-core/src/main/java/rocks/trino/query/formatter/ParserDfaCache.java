@@ -0,0 +1,238 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.SqlBaseLexer;
+import io.trino.sql.parser.SqlBaseParser;
+import io.trino.sql.parser.SqlParser;
+import io.trino.sql.parser.SqlParserOptions;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.dfa.DFA;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * DFA and prediction context caches for the lexers and parsers created by a {@link SqlParser}.
+ * <p>
+ * ANTLR keeps these caches in static fields of the generated lexer and parser and never evicts from
+ * them, so a long-running server that sees varied SQL grows them without bound. Parsers created by
+ * {@link #createSqlParser()} use the caches of the current generation instead. Once the number of
+ * cached DFA states exceeds the ceiling, a new, empty generation replaces it. Parses that are already
+ * running keep the generation they started with, so clearing never races with them; the old
+ * generation is collected once they finish.
+ * <p>
+ * When the parsing thread has a {@link Deadline}, the lexer checks it between tokens and the parser
+ * at every token of lookahead, so that slow predictions on pathological input are abandoned too.
+ * When it has a {@link TokenBuffer} of the text being parsed, the parser reads its tokens instead of
+ * lexing again.
+ */
+public final class ParserDfaCache
+{
+    private static final int DEFAULT_CHECK_INTERVAL = 100;
+
+    private final long maxStates;
+    private final int checkInterval;
+
+    private final AtomicLong parses = new AtomicLong();
+    private final AtomicLong clears = new AtomicLong();
+    private volatile Generation generation = new Generation();
+
+    public ParserDfaCache(long maxStates)
+    {
+        this(maxStates, DEFAULT_CHECK_INTERVAL);
+    }
+
+    /**
+     * @param checkInterval the ceiling is checked every {@code checkInterval} parses, as counting
+     * states walks every decision of the grammar
+     */
+    ParserDfaCache(long maxStates, int checkInterval)
+    {
+        checkArgument(maxStates > 0, "maxStates must be positive");
+        checkArgument(checkInterval > 0, "checkInterval must be positive");
+        this.maxStates = maxStates;
+        this.checkInterval = checkInterval;
+    }
+
+    public SqlParser createSqlParser()
+    {
+        return new SqlParser(new SqlParserOptions(), this::initialize);
+    }
+
+    /**
+     * Drops all cached states. Safe to call while parses are running.
+     */
+    public void clear()
+    {
+        rotate(generation);
+    }
+
+    /**
+     * Number of DFA states and prediction contexts currently cached, a proxy for the memory they hold.
+     */
+    public long getEstimatedStates()
+    {
+        return generation.estimatedStates();
+    }
+
+    public long getClearCount()
+    {
+        return clears.get();
+    }
+
+    public long getMaxStates()
+    {
+        return maxStates;
+    }
+
+    void initialize(SqlBaseLexer lexer, SqlBaseParser parser)
+    {
+        Generation current = generation;
+        if (parses.incrementAndGet() % checkInterval == 0 && current.estimatedStates() > maxStates) {
+            current = rotate(current);
+        }
+        initialize(lexer, current);
+        initialize(parser, current);
+        // errors carry the state the parser failed in, for SyntaxError
+        parser.setErrorHandler(new SyntaxError.CapturingErrorStrategy());
+
+        // text that was already lexed for this request is parsed from its tokens
+        TokenBuffer buffer = TokenBuffer.current();
+        List<Token> tokens = buffer == null ? null : buffer.tokensOf(lexer.getInputStream());
+        if (tokens != null) {
+            parser.setTokenStream(new CommonTokenStream(new ListTokenSource(tokens)));
+        }
+    }
+
+    /**
+     * Sets up a lexer that is not followed by a parser.
+     */
+    void initialize(SqlBaseLexer lexer)
+    {
+        initialize(lexer, generation);
+    }
+
+    /**
+     * Sets up a parser of tokens that were lexed before.
+     */
+    void initialize(SqlBaseParser parser)
+    {
+        initialize(parser, generation);
+    }
+
+    private static void initialize(SqlBaseLexer lexer, Generation current)
+    {
+        Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            lexer.setInterpreter(new LexerATNSimulator(lexer, lexer.getATN(), current.lexerDfa, current.lexerContexts));
+        }
+        else {
+            lexer.setInterpreter(new DeadlineLexerATNSimulator(lexer, current.lexerDfa, current.lexerContexts, deadline));
+        }
+    }
+
+    private static void initialize(SqlBaseParser parser, Generation current)
+    {
+        Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            parser.setInterpreter(new ParserATNSimulator(parser, parser.getATN(), current.parserDfa, current.parserContexts));
+        }
+        else {
+            parser.setInterpreter(new DeadlineParserATNSimulator(parser, current.parserDfa, current.parserContexts, deadline));
+        }
+    }
+
+    private synchronized Generation rotate(Generation expected)
+    {
+        // another thread may have rotated already
+        if (generation == expected) {
+            generation = new Generation();
+            clears.incrementAndGet();
+        }
+        return generation;
+    }
+
+    private static final class DeadlineLexerATNSimulator
+            extends LexerATNSimulator
+    {
+        private final Deadline deadline;
+
+        DeadlineLexerATNSimulator(Lexer lexer, DFA[] dfa, PredictionContextCache contexts, Deadline deadline)
+        {
+            super(lexer, lexer.getATN(), dfa, contexts);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int match(CharStream input, int mode)
+        {
+            deadline.check("lexing");
+            return super.match(input, mode);
+        }
+    }
+
+    private static final class DeadlineParserATNSimulator
+            extends ParserATNSimulator
+    {
+        private final Deadline deadline;
+
+        DeadlineParserATNSimulator(Parser parser, DFA[] dfa, PredictionContextCache contexts, Deadline deadline)
+        {
+            super(parser, parser.getATN(), dfa, contexts);
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected ATNConfigSet computeReachSet(ATNConfigSet closure, int t, boolean fullCtx)
+        {
+            // only called when prediction misses the DFA, which is where ambiguous input spends its time
+            deadline.check("parsing");
+            return super.computeReachSet(closure, t, fullCtx);
+        }
+    }
+
+    private static final class Generation
+    {
+        private final DFA[] lexerDfa = createDfa(SqlBaseLexer._ATN);
+        private final PredictionContextCache lexerContexts = new PredictionContextCache();
+        private final DFA[] parserDfa = createDfa(SqlBaseParser._ATN);
+        private final PredictionContextCache parserContexts = new PredictionContextCache();
+
+        long estimatedStates()
+        {
+            return countStates(lexerDfa) + lexerContexts.size() + countStates(parserDfa) + parserContexts.size();
+        }
+
+        private static DFA[] createDfa(ATN atn)
+        {
+            DFA[] dfa = new DFA[atn.getNumberOfDecisions()];
+            for (int decision = 0; decision < dfa.length; decision++) {
+                dfa[decision] = new DFA(atn.getDecisionState(decision), decision);
+            }
+            return dfa;
+        }
+
+        private static long countStates(DFA[] dfa)
+        {
+            long states = 0;
+            for (DFA decision : dfa) {
+                // ANTLR adds states while holding this lock
+                synchronized (decision.states) {
+                    states += decision.states.size();
+                }
+            }
+            return states;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package rocks.trino.query.formatter;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.trino.sql.tree.Statement;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The shape of a statement: its {@link FormatOptions#CANONICAL canonical} text, with literals
+ * replaced by placeholders and identifiers lower-cased, and a 128-bit hash of that text. Statements
+ * that differ only in literal values, letter case or whitespace have the same fingerprint.
+ */
+public final class QueryFingerprint
+{
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    public final String canonicalSql;
+    public final String hash;
+
+    // Gson skips transient fields; the hex hash above is the serialized form
+    private final transient long hashHigh;
+    private final transient long hashLow;
+
+    private QueryFingerprint(String canonicalSql, HashCode hashCode)
+    {
+        this.canonicalSql = canonicalSql;
+        this.hash = hashCode.toString();
+
+        ByteBuffer bytes = ByteBuffer.wrap(hashCode.asBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        this.hashLow = bytes.getLong();
+        this.hashHigh = bytes.getLong();
+    }
+
+    public static QueryFingerprint of(Statement statement)
+    {
+        String canonicalSql = SqlFormatter.formatSql(statement, FormatOptions.CANONICAL);
+        return new QueryFingerprint(canonicalSql, HASH_FUNCTION.hashString(canonicalSql, UTF_8));
+    }
+
+    public long getHashHigh()
+    {
+        return hashHigh;
+    }
+
+    public long getHashLow()
+    {
+        return hashLow;
+    }
+
+    @Override
+    public String toString()
+    {
+        return hash;
+    }
+}
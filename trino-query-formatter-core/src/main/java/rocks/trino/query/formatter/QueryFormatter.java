@@ -0,0 +1,173 @@
+package rocks.trino.query.formatter;
+
+import com.google.common.base.CharMatcher;
+import io.trino.sql.parser.ParsingException;
+import io.trino.sql.parser.ParsingOptions;
+import io.trino.sql.parser.SqlParser;
+import io.trino.sql.tree.Statement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Parses, formats, fingerprints and analyzes statements. Instances are thread-safe and meant to be
+ * created once and reused: each one owns its parser and its cache of formatted subtrees, and nothing
+ * is kept in static state, so independent instances can be embedded side by side.
+ */
+public final class QueryFormatter
+{
+    public static final long DEFAULT_MAX_DFA_STATES = 200_000;
+    public static final int DEFAULT_FORMAT_CACHE_SIZE = 10_000;
+
+    private static final ParsingOptions PARSING_OPTIONS = new ParsingOptions();
+
+    private final SqlParser sqlParser;
+    private final ParserDfaCache dfaCache;
+    private final FormatCache formatCache;
+    private final boolean verify;
+
+    public QueryFormatter()
+    {
+        this(new ParserDfaCache(DEFAULT_MAX_DFA_STATES), new FormatCache(DEFAULT_FORMAT_CACHE_SIZE), false);
+    }
+
+    /**
+     * Parses with a parser of {@code dfaCache}, which also lexes and parses for anything else done
+     * on behalf of this formatter, see {@link #getParserDfaCache}.
+     */
+    public QueryFormatter(ParserDfaCache dfaCache, FormatCache formatCache, boolean verify)
+    {
+        this(dfaCache.createSqlParser(), dfaCache, formatCache, verify);
+    }
+
+    /**
+     * @param formatCache shared by all calls, and by every formatter it is passed to
+     * @param verify parse every formatted statement again and check that it equals the original; this
+     * doubles the cost of {@link #format}, so it is meant for tests and debugging
+     */
+    public QueryFormatter(SqlParser sqlParser, FormatCache formatCache, boolean verify)
+    {
+        this(sqlParser, null, formatCache, verify);
+    }
+
+    private QueryFormatter(SqlParser sqlParser, ParserDfaCache dfaCache, FormatCache formatCache, boolean verify)
+    {
+        this.sqlParser = requireNonNull(sqlParser, "sqlParser is null");
+        this.dfaCache = dfaCache;
+        this.formatCache = requireNonNull(formatCache, "formatCache is null");
+        this.verify = verify;
+    }
+
+    /**
+     * @throws ParsingException if {@code sql} is not a valid statement
+     */
+    public Statement parse(String sql)
+    {
+        return sqlParser.createStatement(stripSemicolon(sql), PARSING_OPTIONS);
+    }
+
+    /**
+     * Parses the text of {@code tokens}, reading its tokens instead of lexing it when the parser
+     * was created by a {@link ParserDfaCache}.
+     *
+     * @throws ParsingException if the text is not a valid statement
+     */
+    public Statement parse(TokenBuffer tokens)
+    {
+        return tokens.run(() -> parse(tokens.getText()));
+    }
+
+    /**
+     * @throws ParsingException if {@code sql} is not a valid statement
+     */
+    public String format(String sql)
+    {
+        return format(parse(sql));
+    }
+
+    /**
+     * Formats the statement, running the given analyses in the same walk over the tree that the
+     * formatter needs anyway. The result ends with exactly one newline.
+     */
+    public String format(Statement statement, NodeAnalysis... analyses)
+    {
+        return format(statement, Arrays.asList(analyses));
+    }
+
+    public String format(Statement statement, List<? extends NodeAnalysis> analyses)
+    {
+        return format(statement, analyses, null);
+    }
+
+    /**
+     * @param sourceMap when not null, records which node of {@code statement} each character of the
+     * result was written for
+     */
+    public String format(Statement statement, List<? extends NodeAnalysis> analyses, SourceMap.Builder sourceMap)
+    {
+        SubtreeHashes subtreeHashes = new SubtreeHashes();
+        if (!analyses.isEmpty()) {
+            List<NodeAnalysis> allAnalyses = new ArrayList<>(analyses);
+            allAnalyses.add(subtreeHashes);
+            AnalysisWalker.walk(statement, allAnalyses);
+        }
+        // otherwise the formatter hashes the subtrees it memoizes on demand, so a plain format is one
+        // walk over the tree
+
+        String formattedSql = SqlFormatter.formatSql(statement, FormatOptions.DEFAULT, subtreeHashes, formatCache, sourceMap);
+
+        if (verify) {
+            // Check that the original & formatted SQL statements are logically equivalent
+            checkState(statement.equals(sqlParser.createStatement(formattedSql, PARSING_OPTIONS)), "Formatted SQL is different than original");
+        }
+
+        return CharMatcher.is('\n').trimTrailingFrom(formattedSql) + '\n';
+    }
+
+    /**
+     * @throws ParsingException if {@code sql} is not a valid statement
+     */
+    public QueryFingerprint fingerprint(String sql)
+    {
+        return QueryFingerprint.of(parse(sql));
+    }
+
+    /**
+     * Returns the tables, CTEs, aliases and columns the statement references. Table names are
+     * qualified with {@code catalog} and {@code schema} when given.
+     *
+     * @throws ParsingException if {@code sql} is not a valid statement
+     */
+    public RelationAnalysis.Result analyze(String sql, String catalog, String schema)
+    {
+        sql = stripSemicolon(sql);
+        RelationAnalysis relationAnalysis = new RelationAnalysis(sql, catalog, schema);
+        AnalysisWalker.walk(sqlParser.createStatement(sql, PARSING_OPTIONS), relationAnalysis);
+        return relationAnalysis.getResult();
+    }
+
+    public FormatCache getFormatCache()
+    {
+        return formatCache;
+    }
+
+    /**
+     * The DFA cache of the parser, for lexing and completion parses that should share its states;
+     * null when the formatter was created with a {@link SqlParser} of its own.
+     */
+    public ParserDfaCache getParserDfaCache()
+    {
+        return dfaCache;
+    }
+
+    public static String stripSemicolon(String sql)
+    {
+        return CharMatcher.whitespace()
+                .or(CharMatcher.is(';'))
+                .trimTrailingFrom(sql);
+    }
+}
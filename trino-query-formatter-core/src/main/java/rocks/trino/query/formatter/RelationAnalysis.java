@@ -0,0 +1,360 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.tree.AliasedRelation;
+import io.trino.sql.tree.AllColumns;
+import io.trino.sql.tree.AstVisitor;
+import io.trino.sql.tree.ColumnDefinition;
+import io.trino.sql.tree.DataType;
+import io.trino.sql.tree.DataTypeParameter;
+import io.trino.sql.tree.DereferenceExpression;
+import io.trino.sql.tree.Identifier;
+import io.trino.sql.tree.LambdaArgumentDeclaration;
+import io.trino.sql.tree.LambdaExpression;
+import io.trino.sql.tree.Node;
+import io.trino.sql.tree.NodeLocation;
+import io.trino.sql.tree.Property;
+import io.trino.sql.tree.QualifiedName;
+import io.trino.sql.tree.Query;
+import io.trino.sql.tree.RowDataType;
+import io.trino.sql.tree.Table;
+import io.trino.sql.tree.WindowDefinition;
+import io.trino.sql.tree.WindowReference;
+import io.trino.sql.tree.WindowSpecification;
+import io.trino.sql.tree.WithQuery;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Collects every table, CTE, alias and column referenced by a statement, with source locations.
+ * Runs as part of an {@link AnalysisWalker} traversal.
+ * <p>
+ * Names are resolved syntactically: a CTE name hides tables of the same name in the CTEs that follow
+ * it and in the body of the query that defines it (in its own body too, for {@code WITH RECURSIVE}),
+ * and column qualifiers are resolved against the aliases and tables of the statement.
+ */
+public class RelationAnalysis extends AstVisitor<Void, Node> implements NodeAnalysis
+{
+    private final String catalog;
+    private final String schema;
+    private final int[] lineOffsets;
+
+    private final Deque<Node> ancestors = new ArrayDeque<>();
+    private final Deque<Set<String>> cteScopes = new ArrayDeque<>();
+    private final Deque<Set<String>> lambdaScopes = new ArrayDeque<>();
+    private Node skippedSubtree;
+
+    private final Result result = new Result();
+
+    /**
+     * @param sql the text the statement was parsed from, used to turn locations into offsets
+     * @param catalog session catalog used to qualify table names, or null
+     * @param schema session schema used to qualify table names, or null
+     */
+    public RelationAnalysis(String sql, String catalog, String schema)
+    {
+        this.catalog = catalog;
+        this.schema = schema;
+        this.lineOffsets = lineOffsets(sql);
+    }
+
+    public Result getResult()
+    {
+        Map<String, String> aliases = new HashMap<>();
+        for (AliasReference alias : result.aliases) {
+            aliases.put(alias.alias.toLowerCase(Locale.ENGLISH), alias.table);
+        }
+        for (ColumnReference column : result.columns) {
+            if (column.qualifier != null) {
+                column.table = resolveQualifier(column.qualifier, aliases);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void enter(Node node)
+    {
+        if (skippedSubtree == null) {
+            process(node, ancestors.peek());
+        }
+        ancestors.push(node);
+    }
+
+    @Override
+    public void exit(Node node)
+    {
+        ancestors.pop();
+        if (node == skippedSubtree) {
+            skippedSubtree = null;
+        }
+        if (node instanceof WithQuery) {
+            // visible from here on, but not inside its own definition
+            cteScopes.peek().add(canonical(((WithQuery) node).getName()));
+        }
+        if (node instanceof Query && ((Query) node).getWith().isPresent()) {
+            cteScopes.pop();
+        }
+        if (node instanceof LambdaExpression) {
+            lambdaScopes.pop();
+        }
+    }
+
+    @Override
+    protected Void visitNode(Node node, Node parent)
+    {
+        return null;
+    }
+
+    @Override
+    protected Void visitQuery(Query node, Node parent)
+    {
+        node.getWith().ifPresent(with -> {
+            Set<String> names = new HashSet<>();
+            for (WithQuery query : with.getQueries()) {
+                if (with.isRecursive()) {
+                    names.add(canonical(query.getName()));
+                }
+                result.ctes.add(new Reference(query.getName().getValue(), location(query)));
+            }
+            cteScopes.push(names);
+        });
+        return null;
+    }
+
+    @Override
+    protected Void visitTable(Table node, Node parent)
+    {
+        QualifiedName name = node.getName();
+        if (name.getParts().size() == 1 && isCte(name.getParts().get(0))) {
+            return null;
+        }
+        result.tables.add(new Reference(qualify(name), location(node)));
+        return null;
+    }
+
+    @Override
+    protected Void visitAliasedRelation(AliasedRelation node, Node parent)
+    {
+        String table = null;
+        if (node.getRelation() instanceof Table) {
+            QualifiedName name = ((Table) node.getRelation()).getName();
+            table = name.getParts().size() == 1 && isCte(name.getParts().get(0))
+                    ? name.getParts().get(0)
+                    : qualify(name);
+        }
+        result.aliases.add(new AliasReference(node.getAlias().getValue(), table, location(node.getAlias())));
+        return null;
+    }
+
+    @Override
+    protected Void visitLambdaExpression(LambdaExpression node, Node parent)
+    {
+        Set<String> names = new HashSet<>();
+        for (LambdaArgumentDeclaration argument : node.getArguments()) {
+            names.add(canonical(argument.getName()));
+        }
+        lambdaScopes.push(names);
+        return null;
+    }
+
+    @Override
+    protected Void visitDereferenceExpression(DereferenceExpression node, Node parent)
+    {
+        QualifiedName name = DereferenceExpression.getQualifiedName(node);
+        if (name == null) {
+            // e.g. a field of a function result; its base may still contain column references
+            return null;
+        }
+
+        List<String> parts = name.getOriginalParts().stream()
+                .map(Identifier::getValue)
+                .collect(toList());
+        if (!isLambdaArgument(parts.get(0))) {
+            String qualifier = String.join(".", parts.subList(0, parts.size() - 1));
+            result.columns.add(new ColumnReference(qualifier, parts.get(parts.size() - 1), location(node)));
+        }
+        skippedSubtree = node;
+        return null;
+    }
+
+    @Override
+    protected Void visitIdentifier(Identifier node, Node parent)
+    {
+        if (isColumnReference(parent) && !isLambdaArgument(node.getValue())) {
+            result.columns.add(new ColumnReference(null, node.getValue(), location(node)));
+        }
+        return null;
+    }
+
+    private static boolean isColumnReference(Node parent)
+    {
+        // identifiers that name something other than a column
+        return !(parent instanceof AliasedRelation ||
+                parent instanceof WithQuery ||
+                parent instanceof AllColumns ||
+                parent instanceof DataType ||
+                parent instanceof DataTypeParameter ||
+                parent instanceof RowDataType.Field ||
+                parent instanceof ColumnDefinition ||
+                parent instanceof Property ||
+                parent instanceof LambdaArgumentDeclaration ||
+                parent instanceof WindowReference ||
+                parent instanceof WindowDefinition ||
+                parent instanceof WindowSpecification);
+    }
+
+    private boolean isCte(String name)
+    {
+        for (Set<String> scope : cteScopes) {
+            if (scope.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isLambdaArgument(String name)
+    {
+        String canonical = name.toLowerCase(Locale.ENGLISH);
+        for (Set<String> scope : lambdaScopes) {
+            if (scope.contains(canonical)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String qualify(QualifiedName name)
+    {
+        List<String> parts = new ArrayList<>(name.getParts());
+        if (parts.size() == 1 && schema != null) {
+            parts.add(0, schema);
+        }
+        if (parts.size() == 2 && catalog != null) {
+            parts.add(0, catalog);
+        }
+        return String.join(".", parts);
+    }
+
+    private String resolveQualifier(String qualifier, Map<String, String> aliases)
+    {
+        String canonical = qualifier.toLowerCase(Locale.ENGLISH);
+        if (aliases.containsKey(canonical)) {
+            return aliases.get(canonical);
+        }
+        for (Reference table : result.tables) {
+            if (table.name.equals(canonical) || table.name.endsWith("." + canonical)) {
+                return table.name;
+            }
+        }
+        return null;
+    }
+
+    private static String canonical(Identifier identifier)
+    {
+        return identifier.getValue().toLowerCase(Locale.ENGLISH);
+    }
+
+    private SourceLocation location(Node node)
+    {
+        if (!node.getLocation().isPresent()) {
+            return null;
+        }
+        NodeLocation location = node.getLocation().get();
+        int line = location.getLineNumber();
+        int column = location.getColumnNumber();
+        int offset = line - 1 < lineOffsets.length ? lineOffsets[line - 1] + column - 1 : -1;
+        return new SourceLocation(line, column, offset);
+    }
+
+    private static int[] lineOffsets(String sql)
+    {
+        List<Integer> offsets = new ArrayList<>();
+        offsets.add(0);
+        for (int i = 0; i < sql.length(); i++) {
+            if (sql.charAt(i) == '\n') {
+                offsets.add(i + 1);
+            }
+        }
+        return offsets.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static class Result
+    {
+        public List<Reference> tables = new ArrayList<>();
+        public List<Reference> ctes = new ArrayList<>();
+        public List<AliasReference> aliases = new ArrayList<>();
+        public List<ColumnReference> columns = new ArrayList<>();
+    }
+
+    public static class Reference
+    {
+        public String name;
+        public SourceLocation location;
+
+        public Reference(String name, SourceLocation location)
+        {
+            this.name = name;
+            this.location = location;
+        }
+    }
+
+    public static class AliasReference
+    {
+        public String alias;
+        public String table;
+        public SourceLocation location;
+
+        public AliasReference(String alias, String table, SourceLocation location)
+        {
+            this.alias = alias;
+            this.table = table;
+            this.location = location;
+        }
+    }
+
+    public static class ColumnReference
+    {
+        public String qualifier;
+        public String column;
+        public String table;
+        public SourceLocation location;
+
+        public ColumnReference(String qualifier, String column, SourceLocation location)
+        {
+            this.qualifier = qualifier;
+            this.column = column;
+            this.location = location;
+        }
+    }
+
+    public static class SourceLocation
+    {
+        public int line;
+        public int column;
+        public int offset;
+
+        public SourceLocation(int line, int column, int offset)
+        {
+            this.line = line;
+            this.column = column;
+            this.offset = offset;
+        }
+
+        @Override
+        public String toString()
+        {
+            return line + ":" + column;
+        }
+    }
+}
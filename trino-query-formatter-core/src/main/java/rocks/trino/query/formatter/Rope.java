@@ -0,0 +1,390 @@
+package rocks.trino.query.formatter;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * Mutable text stored as a sequence of small chunks, so that an edit copies at most one chunk
+ * instead of the whole text. Every chunk also counts its line breaks, and a prefix index of where
+ * each chunk starts and how many line breaks come before it turns offsets and line and character
+ * positions into each other with a binary search. An edit only invalidates the index from the chunk
+ * it touched on. Offsets and characters are UTF-16 code units, like LSP positions. Not thread-safe.
+ */
+final class Rope
+{
+    private static final int MAX_CHUNK_LENGTH = 1024;
+
+    private final List<Chunk> chunks = new ArrayList<>();
+    private int length;
+
+    // where each chunk starts and the line breaks before it; only the first indexedChunks are current
+    private int[] chunkStarts = new int[0];
+    private int[] linesBefore = new int[0];
+    private int indexedChunks;
+
+    Rope(String text)
+    {
+        for (int start = 0; start < text.length(); start += MAX_CHUNK_LENGTH / 2) {
+            chunks.add(new Chunk(text.substring(start, Math.min(text.length(), start + MAX_CHUNK_LENGTH / 2))));
+        }
+        if (chunks.isEmpty()) {
+            chunks.add(new Chunk(""));
+        }
+        length = text.length();
+    }
+
+    int length()
+    {
+        return length;
+    }
+
+    void replace(int start, int end, String text)
+    {
+        checkPositionIndexes(start, end, length);
+        delete(start, end);
+        insert(start, text);
+    }
+
+    String substring(int start, int end)
+    {
+        checkPositionIndexes(start, end, length);
+        StringBuilder builder = new StringBuilder(end - start);
+        int index = chunkAt(start);
+        for (int chunkStart = chunkStarts[index]; chunkStart < end; index++) {
+            Chunk chunk = chunks.get(index);
+            int chunkEnd = chunkStart + chunk.text.length();
+            builder.append(chunk.text, Math.max(start, chunkStart) - chunkStart, Math.min(end, chunkEnd) - chunkStart);
+            chunkStart = chunkEnd;
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Offset of a zero-based line and character; characters past the end of the line are clamped to it.
+     */
+    int offset(int line, int character)
+    {
+        checkArgument(line >= 0 && character >= 0, "invalid position");
+        if (line == 0) {
+            return clampToLine(0, character);
+        }
+        // the chunk with the line break that ends the previous line
+        index();
+        int low = 0;
+        int high = chunks.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (linesBefore[middle] < line) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        Chunk chunk = chunks.get(low);
+        int remaining = line - linesBefore[low];
+        if (remaining > chunk.lineBreaks) {
+            return length;
+        }
+        int i = 0;
+        while (chunk.text.charAt(i) != '\n' || --remaining > 0) {
+            i++;
+        }
+        return clampToLine(chunkStarts[low] + i + 1, character);
+    }
+
+    /**
+     * Zero-based line and character of an offset, as {@code {line, character}}.
+     */
+    int[] position(int offset)
+    {
+        checkPositionIndexes(offset, offset, length);
+        int index = chunkAt(offset);
+        int line = linesBefore[index] + Chunk.countLineBreaks(chunks.get(index).text, 0, offset - chunkStarts[index]);
+        return new int[] {line, offset - offset(line, 0)};
+    }
+
+    /**
+     * The text from {@code offset} on, for an ANTLR lexer, without copying it. Indexes of the stream,
+     * and so the start and stop indexes of tokens, are offsets in the rope; like the streams of
+     * {@link org.antlr.v4.runtime.CharStreams}, it reads whole code points. The rope must not change
+     * while the stream is in use.
+     */
+    CharStream charStream(int offset)
+    {
+        checkPositionIndexes(offset, offset, length);
+        return new RopeCharStream(offset);
+    }
+
+    @Override
+    public String toString()
+    {
+        return substring(0, length);
+    }
+
+    private int clampToLine(int lineStart, int character)
+    {
+        int offset = lineStart;
+        while (offset < length && offset - lineStart < character && charAt(offset) != '\n') {
+            offset++;
+        }
+        return offset;
+    }
+
+    private char charAt(int offset)
+    {
+        int index = chunkAt(offset);
+        return chunks.get(index).text.charAt(offset - chunkStarts[index]);
+    }
+
+    /**
+     * Index of the last chunk that starts at or before the offset.
+     */
+    private int chunkAt(int offset)
+    {
+        index();
+        int low = 0;
+        int high = chunks.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (chunkStarts[middle] <= offset) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private void index()
+    {
+        if (indexedChunks == chunks.size()) {
+            return;
+        }
+        if (chunkStarts.length < chunks.size()) {
+            chunkStarts = Arrays.copyOf(chunkStarts, chunks.size() * 2);
+            linesBefore = Arrays.copyOf(linesBefore, chunks.size() * 2);
+        }
+        for (int i = indexedChunks; i < chunks.size(); i++) {
+            if (i == 0) {
+                chunkStarts[0] = 0;
+                linesBefore[0] = 0;
+            }
+            else {
+                Chunk previous = chunks.get(i - 1);
+                chunkStarts[i] = chunkStarts[i - 1] + previous.text.length();
+                linesBefore[i] = linesBefore[i - 1] + previous.lineBreaks;
+            }
+        }
+        indexedChunks = chunks.size();
+    }
+
+    private void invalidate(int index)
+    {
+        // the start of a chunk only depends on the chunks before it
+        indexedChunks = Math.min(indexedChunks, index + 1);
+    }
+
+    private void delete(int start, int end)
+    {
+        if (start == end) {
+            return;
+        }
+        int index = chunkAt(start);
+        int chunkStart = chunkStarts[index];
+        invalidate(index);
+        while (start < end) {
+            Chunk chunk = chunks.get(index);
+            int from = start - chunkStart;
+            int to = Math.min(end - chunkStart, chunk.text.length());
+            chunk.delete(from, to);
+            end -= to - from;
+            length -= to - from;
+            if (chunk.text.length() == 0 && chunks.size() > 1) {
+                chunks.remove(index);
+                invalidate(index - 1);
+            }
+            else {
+                chunkStart += chunk.text.length();
+                index++;
+            }
+        }
+    }
+
+    private void insert(int offset, String text)
+    {
+        if (text.isEmpty()) {
+            return;
+        }
+        int index = chunkAt(offset);
+        // the last chunk whose range includes the offset, so appending at the end goes to the last chunk
+        if (index > 0 && chunkStarts[index] == offset) {
+            index--;
+        }
+        Chunk chunk = chunks.get(index);
+        chunk.insert(offset - chunkStarts[index], text);
+        length += text.length();
+        invalidate(index);
+
+        if (chunk.text.length() > MAX_CHUNK_LENGTH) {
+            String content = chunk.text.toString();
+            chunks.remove(index);
+            invalidate(index - 1);
+            for (int start = 0; start < content.length(); start += MAX_CHUNK_LENGTH / 2) {
+                chunks.add(index++, new Chunk(content.substring(start, Math.min(content.length(), start + MAX_CHUNK_LENGTH / 2))));
+            }
+        }
+    }
+
+    private final class RopeCharStream
+            implements CharStream
+    {
+        private int index;
+        // the chunk last read from, so that reading in order does not search for every character
+        private int chunk;
+        private int chunkStart;
+
+        RopeCharStream(int offset)
+        {
+            this.index = offset;
+            this.chunk = chunkAt(offset);
+            this.chunkStart = chunkStarts[chunk];
+        }
+
+        @Override
+        public void consume()
+        {
+            if (index >= length) {
+                throw new IllegalStateException("cannot consume EOF");
+            }
+            index += Character.charCount(codePointAt(index));
+        }
+
+        @Override
+        public int LA(int i)
+        {
+            int offset = index;
+            if (i > 0) {
+                for (int n = 1; n < i && offset < length; n++) {
+                    offset += Character.charCount(codePointAt(offset));
+                }
+                return offset < length ? codePointAt(offset) : IntStream.EOF;
+            }
+            for (int n = 0; n > i; n--) {
+                if (offset == 0) {
+                    return IntStream.EOF;
+                }
+                offset--;
+                if (offset > 0 && Character.isLowSurrogate(read(offset)) && Character.isHighSurrogate(read(offset - 1))) {
+                    offset--;
+                }
+            }
+            return i == 0 ? 0 : codePointAt(offset);
+        }
+
+        @Override
+        public int mark()
+        {
+            return -1;
+        }
+
+        @Override
+        public void release(int marker) {}
+
+        @Override
+        public int index()
+        {
+            return index;
+        }
+
+        @Override
+        public void seek(int index)
+        {
+            this.index = Math.min(index, length);
+        }
+
+        @Override
+        public int size()
+        {
+            return length;
+        }
+
+        @Override
+        public String getSourceName()
+        {
+            return IntStream.UNKNOWN_SOURCE_NAME;
+        }
+
+        @Override
+        public String getText(Interval interval)
+        {
+            int end = Math.min(interval.b + 1, length);
+            return interval.a >= end ? "" : substring(interval.a, end);
+        }
+
+        private int codePointAt(int offset)
+        {
+            char high = read(offset);
+            if (Character.isHighSurrogate(high) && offset + 1 < length) {
+                char low = read(offset + 1);
+                if (Character.isLowSurrogate(low)) {
+                    return Character.toCodePoint(high, low);
+                }
+            }
+            return high;
+        }
+
+        private char read(int offset)
+        {
+            if (offset < chunkStart || offset >= chunkStart + chunks.get(chunk).text.length()) {
+                chunk = chunkAt(offset);
+                chunkStart = chunkStarts[chunk];
+            }
+            return chunks.get(chunk).text.charAt(offset - chunkStart);
+        }
+    }
+
+    private static class Chunk
+    {
+        private final StringBuilder text;
+        private int lineBreaks;
+
+        Chunk(String text)
+        {
+            this.text = new StringBuilder(text);
+            this.lineBreaks = countLineBreaks(text, 0, text.length());
+        }
+
+        void delete(int start, int end)
+        {
+            lineBreaks -= countLineBreaks(text, start, end);
+            text.delete(start, end);
+        }
+
+        void insert(int offset, String inserted)
+        {
+            text.insert(offset, inserted);
+            lineBreaks += countLineBreaks(inserted, 0, inserted.length());
+        }
+
+        private static int countLineBreaks(CharSequence text, int start, int end)
+        {
+            int count = 0;
+            for (int i = start; i < end; i++) {
+                if (text.charAt(i) == '\n') {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
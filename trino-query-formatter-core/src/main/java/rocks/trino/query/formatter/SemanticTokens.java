@@ -0,0 +1,236 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.CaseInsensitiveStream;
+import io.trino.sql.parser.SqlBaseLexer;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.Vocabulary;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LSP semantic tokens of a document, from the lexer alone: every token is classified by its type,
+ * without parsing. The result is the packed LSP encoding, five integers per token: the line relative
+ * to the previous token, the start character relative to the previous token when on the same line,
+ * the length, the index into {@link #TOKEN_TYPES} and the modifiers, which are always 0.
+ * <p>
+ * The tokens of every segment of the document are encoded relative to the start of that segment and
+ * cached by its text, so after an edit only the changed statement is lexed, and the rest is copied.
+ * Not thread-safe.
+ */
+public final class SemanticTokens
+{
+    public static final List<String> TOKEN_TYPES = List.of("keyword", "string", "number", "comment", "operator", "variable");
+
+    private static final int KEYWORD = 0;
+    private static final int STRING = 1;
+    private static final int NUMBER = 2;
+    private static final int COMMENT = 3;
+    private static final int OPERATOR = 4;
+    private static final int VARIABLE = 5;
+    private static final int[] SEMANTIC_TYPES = semanticTypes();
+
+    private static final int MAX_CACHED_SEGMENTS = 16_384;
+
+    private final Map<String, Fragment> fragments = new LinkedHashMap<>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Fragment> eldest)
+        {
+            return size() > MAX_CACHED_SEGMENTS;
+        }
+    };
+
+    public int[] encode(Document document)
+    {
+        List<Document.Segment> segments = document.getSegments();
+        Fragment[] encoded = new Fragment[segments.size()];
+        int length = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = fragments.computeIfAbsent(segments.get(i).sql, Fragment::encode);
+            length += encoded[i].data.length;
+        }
+
+        int[] data = new int[length];
+        int offset = 0;
+        // the start of the segment, and of the last token before it
+        int line = 0;
+        int character = 0;
+        int previousLine = 0;
+        int previousCharacter = 0;
+        for (Fragment fragment : encoded) {
+            if (fragment.data.length > 0) {
+                System.arraycopy(fragment.data, 0, data, offset, fragment.data.length);
+                // only the first token is relative to the segment instead of the previous token
+                int firstLine = line + fragment.data[0];
+                int firstCharacter = fragment.data[0] == 0 ? character + fragment.data[1] : fragment.data[1];
+                data[offset] = firstLine - previousLine;
+                data[offset + 1] = firstLine == previousLine ? firstCharacter - previousCharacter : firstCharacter;
+                offset += fragment.data.length;
+
+                previousLine = line + fragment.lastLine;
+                previousCharacter = fragment.lastLine == 0 ? character + fragment.lastCharacter : fragment.lastCharacter;
+            }
+            line += fragment.lineBreaks;
+            character = fragment.lineBreaks == 0 ? character + fragment.lastLineLength : fragment.lastLineLength;
+        }
+        return data;
+    }
+
+    public static int[] encode(String text)
+    {
+        return Fragment.encode(text).data;
+    }
+
+    /**
+     * The single edit that turns {@code previous} into {@code current}, for
+     * {@code textDocument/semanticTokens/full/delta}.
+     */
+    public static Edit delta(int[] previous, int[] current)
+    {
+        int prefix = 0;
+        while (prefix < previous.length && prefix < current.length && previous[prefix] == current[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < previous.length - prefix && suffix < current.length - prefix
+                && previous[previous.length - 1 - suffix] == current[current.length - 1 - suffix]) {
+            suffix++;
+        }
+        return new Edit(prefix, previous.length - prefix - suffix, Arrays.copyOfRange(current, prefix, current.length - suffix));
+    }
+
+    public static final class Edit
+    {
+        public final int start;
+        public final int deleteCount;
+        public final int[] data;
+
+        public Edit(int start, int deleteCount, int[] data)
+        {
+            this.start = start;
+            this.deleteCount = deleteCount;
+            this.data = data;
+        }
+    }
+
+    private static int[] semanticTypes()
+    {
+        Vocabulary vocabulary = SqlBaseLexer.VOCABULARY;
+        int[] types = new int[vocabulary.getMaxTokenType() + 1];
+        for (int type = 0; type < types.length; type++) {
+            String literal = vocabulary.getLiteralName(type);
+            if (literal != null) {
+                // 'SELECT' or '<='
+                types[type] = Character.isLetter(literal.charAt(1)) ? KEYWORD : OPERATOR;
+            }
+            else {
+                types[type] = -1;
+            }
+        }
+        types[SqlBaseLexer.STRING] = STRING;
+        types[SqlBaseLexer.UNICODE_STRING] = STRING;
+        types[SqlBaseLexer.BINARY_LITERAL] = STRING;
+        types[SqlBaseLexer.INTEGER_VALUE] = NUMBER;
+        types[SqlBaseLexer.DECIMAL_VALUE] = NUMBER;
+        types[SqlBaseLexer.DOUBLE_VALUE] = NUMBER;
+        types[SqlBaseLexer.SIMPLE_COMMENT] = COMMENT;
+        types[SqlBaseLexer.BRACKETED_COMMENT] = COMMENT;
+        types[SqlBaseLexer.IDENTIFIER] = VARIABLE;
+        types[SqlBaseLexer.DIGIT_IDENTIFIER] = VARIABLE;
+        types[SqlBaseLexer.QUOTED_IDENTIFIER] = VARIABLE;
+        types[SqlBaseLexer.BACKQUOTED_IDENTIFIER] = VARIABLE;
+        return types;
+    }
+
+    /**
+     * The encoded tokens of a piece of text, relative to its start.
+     */
+    private static final class Fragment
+    {
+        private final int[] data;
+        // the start of the last token
+        private final int lastLine;
+        private final int lastCharacter;
+        private final int lineBreaks;
+        private final int lastLineLength;
+
+        private Fragment(int[] data, int lastLine, int lastCharacter, int lineBreaks, int lastLineLength)
+        {
+            this.data = data;
+            this.lastLine = lastLine;
+            this.lastCharacter = lastCharacter;
+            this.lineBreaks = lineBreaks;
+            this.lastLineLength = lastLineLength;
+        }
+
+        static Fragment encode(String text)
+        {
+            SqlBaseLexer lexer = new SqlBaseLexer(new CaseInsensitiveStream(CharStreams.fromString(text)));
+            lexer.removeErrorListeners();
+
+            Encoder encoder = new Encoder();
+            // position of the next character, as a code point index, UTF-16 offset, and line and character
+            int codePoints = 0;
+            int offset = 0;
+            int line = 0;
+            int character = 0;
+            for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+                int type = SEMANTIC_TYPES[token.getType()];
+                int tokenLine = line;
+                int tokenCharacter = character;
+                while (codePoints <= token.getStopIndex()) {
+                    int units = Character.charCount(text.codePointAt(offset));
+                    if (text.charAt(offset) == '\n') {
+                        // tokens must not span lines, so a multi-line comment or string becomes one token per line
+                        encoder.add(type, tokenLine, tokenCharacter, character - tokenCharacter);
+                        line++;
+                        character = 0;
+                        tokenLine = line;
+                        tokenCharacter = 0;
+                    }
+                    else {
+                        character += units;
+                    }
+                    offset += units;
+                    codePoints++;
+                }
+                encoder.add(type, tokenLine, tokenCharacter, character - tokenCharacter);
+            }
+            return new Fragment(encoder.toArray(), encoder.previousLine, encoder.previousCharacter, line, character);
+        }
+    }
+
+    private static final class Encoder
+    {
+        private int[] data = new int[64];
+        private int size;
+        private int previousLine;
+        private int previousCharacter;
+
+        void add(int type, int line, int character, int length)
+        {
+            if (type < 0 || length == 0) {
+                return;
+            }
+            if (size + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = line - previousLine;
+            data[size++] = line == previousLine ? character - previousCharacter : character;
+            data[size++] = length;
+            data[size++] = type;
+            data[size++] = 0;
+            previousLine = line;
+            previousCharacter = character;
+        }
+
+        int[] toArray()
+        {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
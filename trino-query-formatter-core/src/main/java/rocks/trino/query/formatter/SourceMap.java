@@ -0,0 +1,184 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.tree.Node;
+import io.trino.sql.tree.NodeLocation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Maps offsets of formatted SQL to the locations in the original SQL of the nodes they were written
+ * for, so that positions can be translated between the two without parsing again.
+ * <p>
+ * The map is run-length encoded as triples in {@link #runs}: a number of characters of the formatted
+ * text, followed by the one-based line and column of the innermost node with a location that they
+ * belong to, or {@code 0, 0} for characters outside of any such node. The runs cover the formatted
+ * text from its first character. Inside expressions, every node with a location has its own runs, so
+ * identifiers and dereferences map to where they were written.
+ */
+public final class SourceMap
+{
+    public final int[] runs;
+
+    private SourceMap(int[] runs)
+    {
+        this.runs = runs;
+    }
+
+    /**
+     * Location of the node the character at {@code offset} of the formatted text was written for.
+     */
+    public Optional<NodeLocation> locate(int offset)
+    {
+        int runStart = 0;
+        for (int i = 0; i < runs.length; i += 3) {
+            runStart += runs[i];
+            if (offset < runStart) {
+                return runs[i + 1] == 0 ? Optional.empty() : Optional.of(new NodeLocation(runs[i + 1], runs[i + 2]));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Records the map while the formatter writes; not thread-safe.
+     * <p>
+     * Statement nodes are entered and exited at offsets of the text written so far. Expressions are
+     * formatted into strings that are only later put together, so the text of each of their nodes is
+     * wrapped in marks instead, see {@link #mark}, which {@link #unmark} takes out of the finished
+     * text and turns into runs.
+     */
+    public static final class Builder
+    {
+        // a mark is ENTER, the index of the node in marked, INDEX_END, the text of the node and EXIT;
+        // characters of the Unicode private use area, which queries are assumed not to contain
+        private static final char ENTER = '\uE000';
+        private static final char INDEX_END = '\uE001';
+        private static final char EXIT = '\uE002';
+
+        // statement nodes entered, or null when exited, at offsets of the marked text
+        private final List<Node> statementNodes = new ArrayList<>();
+        private int[] statementOffsets = new int[16];
+        private final List<Node> marked = new ArrayList<>();
+
+        private final Deque<int[]> enclosing = new ArrayDeque<>();
+        private int[] runs = new int[48];
+        private int size;
+        private int runStart;
+        private int line;
+        private int column;
+
+        void enter(int offset, Node node)
+        {
+            record(offset, node);
+        }
+
+        void exit(int offset)
+        {
+            record(offset, null);
+        }
+
+        /**
+         * The formatted text of a node inside an expression, with the marks that map it to the node.
+         */
+        String mark(Node node, String formatted)
+        {
+            int index = marked.size();
+            marked.add(node);
+            return ENTER + Integer.toString(index) + INDEX_END + formatted + EXIT;
+        }
+
+        /**
+         * Maps the finished text and returns it without marks.
+         */
+        String unmark(CharSequence text)
+        {
+            StringBuilder unmarked = new StringBuilder(text.length());
+            int event = 0;
+            for (int i = 0; i <= text.length(); i++) {
+                while (event < statementNodes.size() && statementOffsets[event] == i) {
+                    replay(unmarked.length(), statementNodes.get(event++));
+                }
+                if (i == text.length()) {
+                    break;
+                }
+                char next = text.charAt(i);
+                if (next == ENTER) {
+                    int indexEnd = i + 1;
+                    while (text.charAt(indexEnd) != INDEX_END) {
+                        indexEnd++;
+                    }
+                    replay(unmarked.length(), marked.get(Integer.parseInt(text.subSequence(i + 1, indexEnd).toString())));
+                    i = indexEnd;
+                }
+                else if (next == EXIT) {
+                    replay(unmarked.length(), null);
+                }
+                else {
+                    unmarked.append(next);
+                }
+            }
+            return unmarked.toString();
+        }
+
+        /**
+         * @param length length of the formatted text; the run that is still open ends there
+         */
+        public SourceMap build(int length)
+        {
+            switchTo(length, -1, -1);
+            return new SourceMap(Arrays.copyOf(runs, size));
+        }
+
+        private void record(int offset, Node node)
+        {
+            if (statementNodes.size() == statementOffsets.length) {
+                statementOffsets = Arrays.copyOf(statementOffsets, statementOffsets.length * 2);
+            }
+            statementOffsets[statementNodes.size()] = offset;
+            statementNodes.add(node);
+        }
+
+        private void replay(int offset, Node entered)
+        {
+            if (entered == null) {
+                int[] location = enclosing.pop();
+                switchTo(offset, location[0], location[1]);
+                return;
+            }
+            enclosing.push(new int[] {line, column});
+            Optional<NodeLocation> location = entered.getLocation();
+            if (location.isPresent()) {
+                switchTo(offset, location.get().getLineNumber(), location.get().getColumnNumber());
+            }
+        }
+
+        private void switchTo(int offset, int line, int column)
+        {
+            if (line == this.line && column == this.column) {
+                return;
+            }
+            if (offset > runStart) {
+                if (size > 0 && runs[size - 2] == this.line && runs[size - 1] == this.column) {
+                    // the same node as the run before, after a child without a location
+                    runs[size - 3] += offset - runStart;
+                }
+                else {
+                    if (size + 3 > runs.length) {
+                        runs = Arrays.copyOf(runs, runs.length * 2);
+                    }
+                    runs[size++] = offset - runStart;
+                    runs[size++] = this.line;
+                    runs[size++] = this.column;
+                }
+                runStart = offset;
+            }
+            this.line = line;
+            this.column = column;
+        }
+    }
+}
@@ -40,6 +40,7 @@ import io.trino.sql.tree.FetchFirst;
 import io.trino.sql.tree.Grant;
 import io.trino.sql.tree.GrantRoles;
 import io.trino.sql.tree.GrantorSpecification;
+import io.trino.sql.tree.GroupingElement;
 import io.trino.sql.tree.Identifier;
 import io.trino.sql.tree.Insert;
 import io.trino.sql.tree.Intersect;
@@ -104,6 +105,7 @@ import io.trino.sql.tree.Update;
 import io.trino.sql.tree.UpdateAssignment;
 import io.trino.sql.tree.Values;
 import io.trino.sql.tree.WindowDefinition;
+import io.trino.sql.tree.WindowSpecification;
 import io.trino.sql.tree.With;
 import io.trino.sql.tree.WithQuery;
 
@@ -116,10 +118,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static rocks.trino.query.formatter.ExpressionFormatter.formatExpression;
-import static rocks.trino.query.formatter.ExpressionFormatter.formatGroupBy;
-import static rocks.trino.query.formatter.ExpressionFormatter.formatOrderBy;
 import static rocks.trino.query.formatter.ExpressionFormatter.formatStringLiteral;
-import static rocks.trino.query.formatter.ExpressionFormatter.formatWindowSpecification;
 import static java.lang.String.format;
 import static java.util.stream.Collectors.joining;
 
@@ -130,10 +129,44 @@ public final class SqlFormatter
     private SqlFormatter() {}
 
     public static String formatSql(Node root)
+    {
+        return formatSql(root, FormatOptions.DEFAULT);
+    }
+
+    public static String formatSql(Node root, FormatOptions options)
+    {
+        return formatSql(root, options, null, null);
+    }
+
+    /**
+     * Formats the statement, reusing the text of queries and subqueries repeated within {@code root}
+     * or formatted by earlier calls with the same cache.
+     */
+    public static String formatSql(Node root, FormatCache cache)
+    {
+        return formatSql(root, FormatOptions.DEFAULT, new SubtreeHashes(), cache);
+    }
+
+    /**
+     * Same as {@link #formatSql(Node, FormatCache)}, with subtree hashes already computed by a shared
+     * {@link AnalysisWalker} traversal. A cache must only ever be used with one {@code options} value.
+     * Without a cache nothing is reused, and {@code hashes} may be null.
+     */
+    static String formatSql(Node root, FormatOptions options, SubtreeHashes hashes, FormatCache cache)
+    {
+        return formatSql(root, options, hashes, cache, null);
+    }
+
+    /**
+     * @param sourceMap records where the text of each node was written, when not null; repeated
+     * subtrees are then formatted again instead of reusing their text, whose map is not kept
+     */
+    static String formatSql(Node root, FormatOptions options, SubtreeHashes hashes, FormatCache cache, SourceMap.Builder sourceMap)
     {
         StringBuilder builder = new StringBuilder();
-        new SqlFormatter.Formatter(builder).process(root, 0);
-        return builder.toString();
+        SubtreeMemo memo = cache == null ? null : new SubtreeMemo(hashes, cache);
+        new SqlFormatter.Formatter(builder, memo, options, sourceMap).process(root, 0);
+        return sourceMap == null ? builder.toString() : sourceMap.unmark(builder);
     }
 
     static String formatName(QualifiedName name)
@@ -143,14 +176,46 @@ public final class SqlFormatter
                 .collect(joining("."));
     }
 
+    static String formatName(QualifiedName name, FormatOptions options)
+    {
+        if (!options.isLowerCaseIdentifiers()) {
+            return formatName(name);
+        }
+        return name.getOriginalParts().stream()
+                .map(part -> formatExpression(part, null, options))
+                .collect(joining("."));
+    }
+
     private static class Formatter
             extends AstVisitor<Void, Integer>
     {
         private final StringBuilder builder;
+        private final SubtreeMemo memo;
+        private final FormatOptions options;
+        private final SourceMap.Builder sourceMap;
+        private final Deadline deadline = Deadline.current();
 
-        public Formatter(StringBuilder builder)
+        public Formatter(StringBuilder builder, SubtreeMemo memo, FormatOptions options, SourceMap.Builder sourceMap)
         {
             this.builder = builder;
+            this.memo = memo;
+            this.options = options;
+            this.sourceMap = sourceMap;
+        }
+
+        @Override
+        public Void process(Node node, Integer indent)
+        {
+            if (deadline != null) {
+                deadline.check("formatting");
+            }
+            if (sourceMap == null) {
+                return super.process(node, indent);
+            }
+            sourceMap.enter(builder.length(), node);
+            super.process(node, indent);
+            sourceMap.exit(builder.length());
+            return null;
         }
 
         @Override
@@ -241,6 +306,11 @@ public final class SqlFormatter
         @Override
         protected Void visitQuery(Query node, Integer indent)
         {
+            if (appendMemoized(node, indent)) {
+                return null;
+            }
+            int start = builder.length();
+
             if (node.getWith().isPresent()) {
                 With with = node.getWith().get();
                 append(indent, "WITH");
@@ -275,6 +345,8 @@ public final class SqlFormatter
             if (node.getLimit().isPresent()) {
                 process(node.getLimit().get(), indent);
             }
+
+            memoize(node, indent, start);
             return null;
         }
 
@@ -556,6 +628,11 @@ public final class SqlFormatter
         @Override
         protected Void visitTableSubquery(TableSubquery node, Integer indent)
         {
+            if (appendMemoized(node, indent)) {
+                return null;
+            }
+            int start = builder.length();
+
             builder.append('(')
                     .append('\n');
 
@@ -563,6 +640,7 @@ public final class SqlFormatter
 
             append(indent, ") ");
 
+            memoize(node, indent, start);
             return null;
         }
 
@@ -1585,6 +1663,55 @@ public final class SqlFormatter
             }
         }
 
+        private String formatExpression(Expression expression, Integer indent)
+        {
+            if (sourceMap != null) {
+                return new rocks.trino.query.formatter.ExpressionFormatter.Formatter(options, sourceMap).process(expression, indent);
+            }
+            return rocks.trino.query.formatter.ExpressionFormatter.formatExpression(expression, indent, options);
+        }
+
+        private String formatGroupBy(List<GroupingElement> groupingElements, Integer indent)
+        {
+            return rocks.trino.query.formatter.ExpressionFormatter.formatGroupBy(groupingElements, indent, options);
+        }
+
+        private String formatOrderBy(OrderBy orderBy, Integer indent)
+        {
+            return rocks.trino.query.formatter.ExpressionFormatter.formatOrderBy(orderBy, indent, options);
+        }
+
+        private String formatWindowSpecification(WindowSpecification windowSpecification, Integer indent)
+        {
+            return rocks.trino.query.formatter.ExpressionFormatter.formatWindowSpecification(windowSpecification, indent, options);
+        }
+
+        private String formatName(QualifiedName name)
+        {
+            return SqlFormatter.formatName(name, options);
+        }
+
+        private boolean appendMemoized(Node node, int indent)
+        {
+            if (memo == null || sourceMap != null) {
+                return false;
+            }
+            String formatted = memo.get(node, indent);
+            if (formatted == null) {
+                return false;
+            }
+            builder.append(formatted);
+            return true;
+        }
+
+        private void memoize(Node node, int indent, int start)
+        {
+            // with a source map the text holds its markers, which must not reach the shared cache
+            if (memo != null && sourceMap == null) {
+                memo.put(node, indent, builder.substring(start));
+            }
+        }
+
         private StringBuilder append(int indent, String value)
         {
             return builder.append(indentString(indent))
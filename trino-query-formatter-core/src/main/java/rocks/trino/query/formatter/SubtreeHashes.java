@@ -0,0 +1,380 @@
+package rocks.trino.query.formatter;
+
+import com.google.common.collect.ImmutableMap;
+import io.trino.sql.tree.AliasedRelation;
+import io.trino.sql.tree.AllColumns;
+import io.trino.sql.tree.ArithmeticBinaryExpression;
+import io.trino.sql.tree.ArithmeticUnaryExpression;
+import io.trino.sql.tree.ArrayConstructor;
+import io.trino.sql.tree.AtTimeZone;
+import io.trino.sql.tree.BetweenPredicate;
+import io.trino.sql.tree.BinaryLiteral;
+import io.trino.sql.tree.BindExpression;
+import io.trino.sql.tree.BooleanLiteral;
+import io.trino.sql.tree.Cast;
+import io.trino.sql.tree.CharLiteral;
+import io.trino.sql.tree.CoalesceExpression;
+import io.trino.sql.tree.ComparisonExpression;
+import io.trino.sql.tree.Cube;
+import io.trino.sql.tree.CurrentTime;
+import io.trino.sql.tree.DateTimeDataType;
+import io.trino.sql.tree.DecimalLiteral;
+import io.trino.sql.tree.DereferenceExpression;
+import io.trino.sql.tree.DoubleLiteral;
+import io.trino.sql.tree.Except;
+import io.trino.sql.tree.ExistsPredicate;
+import io.trino.sql.tree.Extract;
+import io.trino.sql.tree.FetchFirst;
+import io.trino.sql.tree.Format;
+import io.trino.sql.tree.FrameBound;
+import io.trino.sql.tree.FunctionCall;
+import io.trino.sql.tree.GenericDataType;
+import io.trino.sql.tree.GenericLiteral;
+import io.trino.sql.tree.GroupBy;
+import io.trino.sql.tree.GroupingOperation;
+import io.trino.sql.tree.GroupingSets;
+import io.trino.sql.tree.Identifier;
+import io.trino.sql.tree.IfExpression;
+import io.trino.sql.tree.InListExpression;
+import io.trino.sql.tree.InPredicate;
+import io.trino.sql.tree.Intersect;
+import io.trino.sql.tree.IntervalDayTimeDataType;
+import io.trino.sql.tree.IntervalLiteral;
+import io.trino.sql.tree.IsNotNullPredicate;
+import io.trino.sql.tree.IsNullPredicate;
+import io.trino.sql.tree.Join;
+import io.trino.sql.tree.LambdaArgumentDeclaration;
+import io.trino.sql.tree.LambdaExpression;
+import io.trino.sql.tree.Lateral;
+import io.trino.sql.tree.LikePredicate;
+import io.trino.sql.tree.Limit;
+import io.trino.sql.tree.LogicalBinaryExpression;
+import io.trino.sql.tree.LongLiteral;
+import io.trino.sql.tree.Node;
+import io.trino.sql.tree.NotExpression;
+import io.trino.sql.tree.NullIfExpression;
+import io.trino.sql.tree.NumericParameter;
+import io.trino.sql.tree.Offset;
+import io.trino.sql.tree.OrderBy;
+import io.trino.sql.tree.Parameter;
+import io.trino.sql.tree.QuantifiedComparisonExpression;
+import io.trino.sql.tree.Query;
+import io.trino.sql.tree.QuerySpecification;
+import io.trino.sql.tree.Rollup;
+import io.trino.sql.tree.Row;
+import io.trino.sql.tree.RowDataType;
+import io.trino.sql.tree.SampledRelation;
+import io.trino.sql.tree.SearchedCaseExpression;
+import io.trino.sql.tree.Select;
+import io.trino.sql.tree.SimpleCaseExpression;
+import io.trino.sql.tree.SimpleGroupBy;
+import io.trino.sql.tree.SingleColumn;
+import io.trino.sql.tree.SortItem;
+import io.trino.sql.tree.StringLiteral;
+import io.trino.sql.tree.SubqueryExpression;
+import io.trino.sql.tree.SubscriptExpression;
+import io.trino.sql.tree.SymbolReference;
+import io.trino.sql.tree.Table;
+import io.trino.sql.tree.TableSubquery;
+import io.trino.sql.tree.TimeLiteral;
+import io.trino.sql.tree.TimestampLiteral;
+import io.trino.sql.tree.TryExpression;
+import io.trino.sql.tree.TypeParameter;
+import io.trino.sql.tree.Union;
+import io.trino.sql.tree.Unnest;
+import io.trino.sql.tree.Values;
+import io.trino.sql.tree.WhenClause;
+import io.trino.sql.tree.WindowDefinition;
+import io.trino.sql.tree.WindowFrame;
+import io.trino.sql.tree.WindowReference;
+import io.trino.sql.tree.WindowSpecification;
+import io.trino.sql.tree.With;
+import io.trino.sql.tree.WithQuery;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Structural (Merkle) hashes of AST subtrees. A node's hash combines its class, the hashes of its
+ * children and every other attribute the formatter reads (operators, join types, quantifiers,
+ * literal values, the spelling of names, ...), so each node is hashed exactly once no matter how
+ * deep the tree is. Run it as part of an {@link AnalysisWalker} traversal, or use {@link #of(Node)}.
+ * <p>
+ * Each node gets two independent 64-bit values, a hash and a signature, which together identify
+ * its formatted text. Nodes whose attributes are not known here, and the subtrees that contain
+ * them, are not {@linkplain #isCacheable(Node) cacheable}.
+ */
+final class SubtreeHashes
+        implements NodeAnalysis
+{
+    private static final long HASH_SEED = 0x9E3779B97F4A7C15L;
+    private static final long SIGNATURE_SEED = 0xC2B2AE3D27D4EB4FL;
+
+    private static final Map<Class<? extends Node>, Function<Node, List<?>>> ATTRIBUTES = attributes();
+
+    private final Map<Node, Subtree> subtrees = new IdentityHashMap<>();
+
+    static SubtreeHashes of(Node root)
+    {
+        SubtreeHashes hashes = new SubtreeHashes();
+        AnalysisWalker.walk(root, hashes);
+        return hashes;
+    }
+
+    @Override
+    public void exit(Node node)
+    {
+        // children have already been hashed, so this only combines their hashes
+        subtree(node);
+    }
+
+    long hash(Node node)
+    {
+        return subtree(node).hash;
+    }
+
+    long signature(Node node)
+    {
+        return subtree(node).signature;
+    }
+
+    /**
+     * Whether the hash and signature cover everything the formatter writes for the subtree.
+     */
+    boolean isCacheable(Node node)
+    {
+        return subtree(node).cacheable;
+    }
+
+    /**
+     * Nodes that were not part of the original tree (for example wrappers synthesized while
+     * formatting) are hashed on demand, reusing the hashes of any children already seen.
+     */
+    private Subtree subtree(Node node)
+    {
+        Subtree subtree = subtrees.get(node);
+        if (subtree != null) {
+            return subtree;
+        }
+
+        subtree = new Subtree(node.getClass().getName());
+        Function<Node, List<?>> attributes = ATTRIBUTES.get(node.getClass());
+        if (attributes != null) {
+            add(subtree, attributes.apply(node));
+        }
+        else if (node.getChildren().isEmpty()) {
+            subtree.add(node.hashCode());
+        }
+        else {
+            add(subtree, node.getChildren());
+            subtree.cacheable = false;
+        }
+
+        subtrees.put(node, subtree);
+        return subtree;
+    }
+
+    private void add(Subtree subtree, Object value)
+    {
+        if (value == null) {
+            subtree.add(0);
+        }
+        else if (value instanceof Node) {
+            Subtree child = subtree((Node) value);
+            subtree.add(child.hash, child.signature);
+            subtree.cacheable &= child.cacheable;
+        }
+        else if (value instanceof Optional) {
+            Optional<?> optional = (Optional<?>) value;
+            subtree.add(optional.isPresent() ? 1 : 0);
+            optional.ifPresent(present -> add(subtree, present));
+        }
+        else if (value instanceof List) {
+            // the size keeps the shape of nested lists, such as grouping sets
+            List<?> list = (List<?>) value;
+            subtree.add(list.size());
+            for (Object element : list) {
+                add(subtree, element);
+            }
+        }
+        else if (value instanceof Enum) {
+            subtree.add(((Enum<?>) value).name());
+        }
+        else if (value instanceof String) {
+            subtree.add((String) value);
+        }
+        else if (value instanceof Number || value instanceof Boolean) {
+            subtree.add(value.toString());
+        }
+        else {
+            subtree.add(value.hashCode());
+        }
+    }
+
+    private static Map<Class<? extends Node>, Function<Node, List<?>>> attributes()
+    {
+        Attributes attributes = new Attributes();
+
+        // Node#equals ignores quoting and the original case of names, but the formatter preserves
+        // both, so names are hashed through their original parts
+        attributes.add(Identifier.class, node -> asList(node.getValue(), node.isDelimited()));
+        attributes.add(Table.class, node -> asList(node.getName().getOriginalParts()));
+
+        attributes.add(Query.class, node -> asList(node.getWith(), node.getQueryBody(), node.getOrderBy(), node.getOffset(), node.getLimit()));
+        attributes.add(With.class, node -> asList(node.isRecursive(), node.getQueries()));
+        attributes.add(WithQuery.class, node -> asList(node.getName(), node.getColumnNames(), node.getQuery()));
+        attributes.add(QuerySpecification.class, node -> asList(node.getSelect(), node.getFrom(), node.getWhere(), node.getGroupBy(), node.getHaving(), node.getWindows(), node.getOrderBy(), node.getOffset(), node.getLimit()));
+        attributes.add(Select.class, node -> asList(node.isDistinct(), node.getSelectItems()));
+        attributes.add(SingleColumn.class, node -> asList(node.getExpression(), node.getAlias()));
+        attributes.add(AllColumns.class, node -> asList(node.getTarget(), node.getAliases()));
+        attributes.add(AliasedRelation.class, node -> asList(node.getRelation(), node.getAlias(), node.getColumnNames()));
+        attributes.add(Join.class, node -> asList(node.getType(), node.getLeft(), node.getRight(),
+                node.getCriteria().map(criteria -> asList(criteria.getClass().getName(), criteria.getNodes()))));
+        attributes.add(TableSubquery.class, node -> asList(node.getQuery()));
+        attributes.add(Lateral.class, node -> asList(node.getQuery()));
+        attributes.add(Unnest.class, node -> asList(node.getExpressions(), node.isWithOrdinality()));
+        attributes.add(Values.class, node -> asList(node.getRows()));
+        attributes.add(Union.class, node -> asList(node.isDistinct(), node.getRelations()));
+        attributes.add(Intersect.class, node -> asList(node.isDistinct(), node.getRelations()));
+        attributes.add(Except.class, node -> asList(node.isDistinct(), node.getLeft(), node.getRight()));
+        attributes.add(SampledRelation.class, node -> asList(node.getRelation(), node.getType(), node.getSamplePercentage()));
+        attributes.add(OrderBy.class, node -> asList(node.getSortItems()));
+        attributes.add(SortItem.class, node -> asList(node.getSortKey(), node.getOrdering(), node.getNullOrdering()));
+        attributes.add(Offset.class, node -> asList(node.getRowCount()));
+        attributes.add(Limit.class, node -> asList(node.getRowCount()));
+        attributes.add(FetchFirst.class, node -> asList(node.getRowCount(), node.isWithTies()));
+        attributes.add(GroupBy.class, node -> asList(node.isDistinct(), node.getGroupingElements()));
+        attributes.add(SimpleGroupBy.class, node -> asList(node.getExpressions()));
+        attributes.add(GroupingSets.class, node -> asList(node.getSets()));
+        attributes.add(Cube.class, node -> asList(node.getExpressions()));
+        attributes.add(Rollup.class, node -> asList(node.getExpressions()));
+        attributes.add(WindowDefinition.class, node -> asList(node.getName(), node.getWindow()));
+        attributes.add(WindowReference.class, node -> asList(node.getName()));
+        attributes.add(WindowSpecification.class, node -> asList(node.getExistingWindowName(), node.getPartitionBy(), node.getOrderBy(), node.getFrame()));
+        attributes.add(WindowFrame.class, node -> asList(node.getType(), node.getStart(), node.getEnd()));
+        attributes.add(FrameBound.class, node -> asList(node.getType(), node.getValue()));
+
+        attributes.add(FunctionCall.class, node -> asList(node.getName().getOriginalParts(), node.isDistinct(), node.getArguments(), node.getOrderBy(), node.getNullTreatment(), node.getFilter(), node.getWindow()));
+        attributes.add(ComparisonExpression.class, node -> asList(node.getOperator(), node.getLeft(), node.getRight()));
+        attributes.add(LogicalBinaryExpression.class, node -> asList(node.getOperator(), node.getLeft(), node.getRight()));
+        attributes.add(ArithmeticBinaryExpression.class, node -> asList(node.getOperator(), node.getLeft(), node.getRight()));
+        attributes.add(ArithmeticUnaryExpression.class, node -> asList(node.getSign(), node.getValue()));
+        attributes.add(QuantifiedComparisonExpression.class, node -> asList(node.getOperator(), node.getQuantifier(), node.getValue(), node.getSubquery()));
+        attributes.add(NotExpression.class, node -> asList(node.getValue()));
+        attributes.add(IsNullPredicate.class, node -> asList(node.getValue()));
+        attributes.add(IsNotNullPredicate.class, node -> asList(node.getValue()));
+        attributes.add(NullIfExpression.class, node -> asList(node.getFirst(), node.getSecond()));
+        attributes.add(IfExpression.class, node -> asList(node.getCondition(), node.getTrueValue(), node.getFalseValue()));
+        attributes.add(TryExpression.class, node -> asList(node.getInnerExpression()));
+        attributes.add(CoalesceExpression.class, node -> asList(node.getOperands()));
+        attributes.add(LikePredicate.class, node -> asList(node.getValue(), node.getPattern(), node.getEscape()));
+        attributes.add(BetweenPredicate.class, node -> asList(node.getValue(), node.getMin(), node.getMax()));
+        attributes.add(InPredicate.class, node -> asList(node.getValue(), node.getValueList()));
+        attributes.add(InListExpression.class, node -> asList(node.getValues()));
+        attributes.add(ExistsPredicate.class, node -> asList(node.getSubquery()));
+        attributes.add(SubqueryExpression.class, node -> asList(node.getQuery()));
+        attributes.add(SearchedCaseExpression.class, node -> asList(node.getWhenClauses(), node.getDefaultValue()));
+        attributes.add(SimpleCaseExpression.class, node -> asList(node.getOperand(), node.getWhenClauses(), node.getDefaultValue()));
+        attributes.add(WhenClause.class, node -> asList(node.getOperand(), node.getResult()));
+        attributes.add(Cast.class, node -> asList(node.isSafe(), node.getExpression(), node.getType()));
+        attributes.add(Extract.class, node -> asList(node.getField(), node.getExpression()));
+        attributes.add(AtTimeZone.class, node -> asList(node.getValue(), node.getTimeZone()));
+        attributes.add(Format.class, node -> asList(node.getArguments()));
+        attributes.add(DereferenceExpression.class, node -> asList(node.getBase(), node.getField()));
+        attributes.add(SubscriptExpression.class, node -> asList(node.getBase(), node.getIndex()));
+        attributes.add(ArrayConstructor.class, node -> asList(node.getValues()));
+        attributes.add(Row.class, node -> asList(node.getItems()));
+        attributes.add(LambdaExpression.class, node -> asList(node.getArguments(), node.getBody()));
+        attributes.add(LambdaArgumentDeclaration.class, node -> asList(node.getName()));
+        attributes.add(BindExpression.class, node -> asList(node.getValues(), node.getFunction()));
+        attributes.add(GroupingOperation.class, node -> asList(node.getGroupingColumns()));
+        attributes.add(SymbolReference.class, node -> asList(node.getName()));
+        attributes.add(Parameter.class, node -> asList(node.getPosition()));
+        attributes.add(CurrentTime.class, node -> asList(node.getFunction(), node.getPrecision()));
+
+        attributes.add(StringLiteral.class, node -> asList(node.getValue()));
+        attributes.add(CharLiteral.class, node -> asList(node.getValue()));
+        attributes.add(BinaryLiteral.class, node -> asList(node.toHexString()));
+        attributes.add(BooleanLiteral.class, node -> asList(node.getValue()));
+        attributes.add(LongLiteral.class, node -> asList(node.getValue()));
+        attributes.add(DoubleLiteral.class, node -> asList(node.getValue()));
+        attributes.add(DecimalLiteral.class, node -> asList(node.getValue()));
+        attributes.add(GenericLiteral.class, node -> asList(node.getType(), node.getValue()));
+        attributes.add(TimeLiteral.class, node -> asList(node.getValue()));
+        attributes.add(TimestampLiteral.class, node -> asList(node.getValue()));
+        attributes.add(IntervalLiteral.class, node -> asList(node.getSign(), node.getValue(), node.getStartField(), node.getEndField()));
+
+        attributes.add(GenericDataType.class, node -> asList(node.getName(), node.getArguments()));
+        attributes.add(RowDataType.class, node -> asList(node.getFields()));
+        attributes.add(RowDataType.Field.class, node -> asList(node.getName(), node.getType()));
+        attributes.add(TypeParameter.class, node -> asList(node.getValue()));
+        attributes.add(NumericParameter.class, node -> asList(node.getValue()));
+        attributes.add(DateTimeDataType.class, node -> asList(node.getType(), node.getPrecision(), node.isWithTimeZone()));
+        attributes.add(IntervalDayTimeDataType.class, node -> asList(node.getFrom(), node.getTo()));
+
+        return attributes.builder.build();
+    }
+
+    private static final class Attributes
+    {
+        private final ImmutableMap.Builder<Class<? extends Node>, Function<Node, List<?>>> builder = ImmutableMap.builder();
+
+        <T extends Node> void add(Class<T> type, Function<T, List<?>> attributes)
+        {
+            builder.put(type, node -> attributes.apply(type.cast(node)));
+        }
+    }
+
+    private static final class Subtree
+    {
+        private long hash;
+        private long signature;
+        private boolean cacheable = true;
+
+        Subtree(String type)
+        {
+            hash = HASH_SEED;
+            signature = SIGNATURE_SEED;
+            add(type);
+        }
+
+        void add(String value)
+        {
+            // two different string hashes, so names and literals that collide in String#hashCode
+            // still differ in the signature
+            long signature = 0;
+            for (int i = 0; i < value.length(); i++) {
+                signature = signature * 0x100000001B3L + value.charAt(i);
+            }
+            add(value.hashCode() * 31L + value.length(), signature);
+        }
+
+        void add(long value)
+        {
+            add(value, value);
+        }
+
+        void add(long hashValue, long signatureValue)
+        {
+            hash = mix(hash, hashValue);
+            signature = mix(signature, signatureValue);
+        }
+    }
+
+    private static long mix(long hash, long value)
+    {
+        // finalizer from MurmurHash3 (fmix64)
+        long h = hash * 31 + value;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
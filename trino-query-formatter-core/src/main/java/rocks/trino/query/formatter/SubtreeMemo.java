@@ -0,0 +1,57 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.tree.Node;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Formatted text of the subtrees seen while formatting one statement, keyed by structural hash,
+ * signature and indent level, backed by a {@link FormatCache} shared between statements. Subtrees
+ * that are not {@linkplain SubtreeHashes#isCacheable(Node) cacheable} are always formatted.
+ */
+final class SubtreeMemo
+{
+    private final SubtreeHashes hashes;
+    private final Map<FormatCache.Key, String> local = new HashMap<>();
+    private final FormatCache shared;
+
+    SubtreeMemo(SubtreeHashes hashes, FormatCache shared)
+    {
+        this.hashes = hashes;
+        this.shared = shared;
+    }
+
+    String get(Node node, int indent)
+    {
+        if (!hashes.isCacheable(node)) {
+            return null;
+        }
+        FormatCache.Key key = key(node, indent);
+
+        String formatted = local.get(key);
+        if (formatted == null) {
+            formatted = shared.get(key);
+            if (formatted != null) {
+                local.put(key, formatted);
+            }
+        }
+        return formatted;
+    }
+
+    void put(Node node, int indent, String formatted)
+    {
+        if (!hashes.isCacheable(node)) {
+            return;
+        }
+        FormatCache.Key key = key(node, indent);
+
+        local.put(key, formatted);
+        shared.put(key, formatted);
+    }
+
+    private FormatCache.Key key(Node node, int indent)
+    {
+        return new FormatCache.Key(hashes.hash(node), hashes.signature(node), indent);
+    }
+}
@@ -0,0 +1,284 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.SqlBaseParser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The relations of every query scope of a statement and the columns they have, collected in one
+ * pass over its parse tree, which may be the partial tree of an incomplete statement.
+ * <p>
+ * Columns are known as far as the statement tells: those of a CTE or a subquery are its column
+ * aliases, or else the names of its select items, where {@code *} stands for the columns of the
+ * relations it selects from. A table referenced by name has no columns here; it is listed in
+ * {@link Relation#tables}, for the caller to look up in a catalog.
+ */
+public final class SymbolTable
+{
+    // relations of the FROM clause of each query specification, and of each query the
+    // specifications of its query term, which its ORDER BY refers to
+    private final Map<ParserRuleContext, List<Relation>> scopes = new IdentityHashMap<>();
+    // CTEs visible at the point of the walk, those of the innermost query first
+    private final Deque<Map<String, Relation>> ctes = new ArrayDeque<>();
+
+    private SymbolTable()
+    {
+    }
+
+    public static SymbolTable of(ParseTree tree)
+    {
+        SymbolTable symbols = new SymbolTable();
+        symbols.visit(tree);
+        return symbols;
+    }
+
+    /**
+     * Relations of {@code scope}, a query specification or a query, in the order they are written;
+     * empty for other nodes.
+     */
+    public List<Relation> relations(ParserRuleContext scope)
+    {
+        return scopes.getOrDefault(scope, List.of());
+    }
+
+    public static final class Relation
+    {
+        // the qualified table name as written; null for subqueries, UNNEST and LATERAL
+        public final String name;
+        public final String alias;
+        // columns known from the statement
+        public final List<String> columns;
+        // tables whose columns the relation has as well, qualified as written
+        public final List<String> tables;
+
+        public Relation(String name, String alias, List<String> columns, List<String> tables)
+        {
+            this.name = name;
+            this.alias = alias;
+            this.columns = columns;
+            this.tables = tables;
+        }
+    }
+
+    private void visit(ParseTree tree)
+    {
+        if (tree == null) {
+            return;
+        }
+        if (tree instanceof SqlBaseParser.QueryContext) {
+            visitQuery((SqlBaseParser.QueryContext) tree);
+            return;
+        }
+        // subqueries first, so that their columns are known where they are selected from
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            visit(tree.getChild(i));
+        }
+        if (tree instanceof SqlBaseParser.QuerySpecificationContext) {
+            List<Relation> relations = new ArrayList<>();
+            for (SqlBaseParser.RelationContext relation : ((SqlBaseParser.QuerySpecificationContext) tree).relation()) {
+                collectRelations(relation, relations);
+            }
+            scopes.put((ParserRuleContext) tree, Collections.unmodifiableList(relations));
+        }
+        else if (tree instanceof SqlBaseParser.QueryNoWithContext) {
+            List<Relation> relations = new ArrayList<>();
+            collectSpecifications(((SqlBaseParser.QueryNoWithContext) tree).queryTerm(), relations);
+            scopes.put((ParserRuleContext) tree, Collections.unmodifiableList(relations));
+        }
+    }
+
+    private void visitQuery(SqlBaseParser.QueryContext query)
+    {
+        Map<String, Relation> named = new HashMap<>();
+        ctes.push(named);
+        if (query.with() != null) {
+            for (SqlBaseParser.NamedQueryContext namedQuery : query.with().namedQuery()) {
+                visit(namedQuery.query());
+                if (namedQuery.name == null) {
+                    continue;
+                }
+                // a CTE is visible to the CTEs after it, not to its own definition
+                Relation columns = namedQuery.columnAliases() != null
+                        ? new Relation(null, null, identifiers(namedQuery.columnAliases()), List.of())
+                        : projections(namedQuery.query());
+                named.put(canonical(namedQuery.name.getText()), columns);
+            }
+        }
+        visit(query.queryNoWith());
+        ctes.pop();
+    }
+
+    private void collectSpecifications(ParseTree tree, List<Relation> relations)
+    {
+        if (tree == null || tree instanceof SqlBaseParser.QueryContext) {
+            return;
+        }
+        if (tree instanceof SqlBaseParser.QuerySpecificationContext) {
+            relations.addAll(relations((SqlBaseParser.QuerySpecificationContext) tree));
+            return;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectSpecifications(tree.getChild(i), relations);
+        }
+    }
+
+    private void collectRelations(ParseTree tree, List<Relation> relations)
+    {
+        if (tree == null || tree instanceof SqlBaseParser.QueryContext) {
+            // a subquery has a scope of its own
+            return;
+        }
+        if (tree instanceof SqlBaseParser.AliasedRelationContext) {
+            SqlBaseParser.AliasedRelationContext aliased = (SqlBaseParser.AliasedRelationContext) tree;
+            SqlBaseParser.RelationPrimaryContext primary = aliased.relationPrimary();
+            String alias = aliased.identifier() == null ? null : aliased.identifier().getText();
+            if (primary instanceof SqlBaseParser.ParenthesizedRelationContext) {
+                collectRelations(primary, relations);
+                return;
+            }
+            String name = null;
+            Relation columns;
+            if (primary instanceof SqlBaseParser.TableNameContext) {
+                name = primary.getText();
+                Relation cte = name.indexOf('.') < 0 ? cte(name) : null;
+                columns = cte != null ? cte : new Relation(null, null, List.of(), List.of(name));
+            }
+            else {
+                columns = projections(subquery(primary));
+            }
+            if (aliased.columnAliases() != null) {
+                columns = new Relation(null, null, identifiers(aliased.columnAliases()), List.of());
+            }
+            if (name != null || alias != null) {
+                relations.add(new Relation(name, alias, columns.columns, columns.tables));
+            }
+            return;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectRelations(tree.getChild(i), relations);
+        }
+    }
+
+    private Relation cte(String name)
+    {
+        for (Map<String, Relation> named : ctes) {
+            Relation cte = named.get(canonical(name));
+            if (cte != null) {
+                return cte;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The columns of the rows a query returns, named by its first query specification, as in a
+     * UNION the first one names the columns.
+     */
+    private Relation projections(SqlBaseParser.QueryContext query)
+    {
+        SqlBaseParser.QuerySpecificationContext specification = query == null ? null : firstSpecification(query.queryNoWith());
+        if (specification == null) {
+            return new Relation(null, null, List.of(), List.of());
+        }
+        List<String> columns = new ArrayList<>();
+        List<String> tables = new ArrayList<>();
+        for (SqlBaseParser.SelectItemContext item : specification.selectItem()) {
+            if (item instanceof SqlBaseParser.SelectSingleContext) {
+                SqlBaseParser.SelectSingleContext single = (SqlBaseParser.SelectSingleContext) item;
+                String column = single.identifier() != null ? single.identifier().getText() : columnName(single.expression());
+                if (column != null) {
+                    columns.add(column);
+                }
+            }
+            else if (item instanceof SqlBaseParser.SelectAllContext) {
+                SqlBaseParser.PrimaryExpressionContext qualifier = ((SqlBaseParser.SelectAllContext) item).primaryExpression();
+                for (Relation relation : relations(specification)) {
+                    if (qualifier == null || qualifier.getText().equalsIgnoreCase(relation.alias != null ? relation.alias : unqualified(relation.name))) {
+                        columns.addAll(relation.columns);
+                        tables.addAll(relation.tables);
+                    }
+                }
+            }
+        }
+        return new Relation(null, null, Collections.unmodifiableList(columns), Collections.unmodifiableList(tables));
+    }
+
+    private static SqlBaseParser.QuerySpecificationContext firstSpecification(ParseTree tree)
+    {
+        if (tree == null || tree instanceof SqlBaseParser.QueryContext) {
+            return null;
+        }
+        if (tree instanceof SqlBaseParser.QuerySpecificationContext) {
+            return (SqlBaseParser.QuerySpecificationContext) tree;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            SqlBaseParser.QuerySpecificationContext specification = firstSpecification(tree.getChild(i));
+            if (specification != null) {
+                return specification;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The query of a subquery or LATERAL relation, or null.
+     */
+    private static SqlBaseParser.QueryContext subquery(ParseTree primary)
+    {
+        for (int i = 0; i < primary.getChildCount(); i++) {
+            if (primary.getChild(i) instanceof SqlBaseParser.QueryContext) {
+                return (SqlBaseParser.QueryContext) primary.getChild(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The name of the column an unaliased select item has: that of a column reference, or the last
+     * part of a dereference; null for other expressions.
+     */
+    private static String columnName(ParseTree expression)
+    {
+        // expression, boolean expression and value expression wrap the primary expression
+        ParseTree tree = expression;
+        while (tree != null && tree.getChildCount() == 1 && !(tree instanceof SqlBaseParser.ColumnReferenceContext)) {
+            tree = tree.getChild(0);
+        }
+        if (tree instanceof SqlBaseParser.ColumnReferenceContext) {
+            return tree.getText();
+        }
+        if (tree instanceof SqlBaseParser.DereferenceContext && ((SqlBaseParser.DereferenceContext) tree).fieldName != null) {
+            return ((SqlBaseParser.DereferenceContext) tree).fieldName.getText();
+        }
+        return null;
+    }
+
+    private static List<String> identifiers(SqlBaseParser.ColumnAliasesContext aliases)
+    {
+        List<String> identifiers = new ArrayList<>();
+        for (SqlBaseParser.IdentifierContext identifier : aliases.identifier()) {
+            identifiers.add(identifier.getText());
+        }
+        return Collections.unmodifiableList(identifiers);
+    }
+
+    private static String unqualified(String name)
+    {
+        return name == null ? null : name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    private static String canonical(String name)
+    {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+}
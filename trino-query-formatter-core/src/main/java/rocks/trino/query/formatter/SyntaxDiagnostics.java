@@ -0,0 +1,205 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.CaseInsensitiveStream;
+import io.trino.sql.parser.SqlBaseBaseListener;
+import io.trino.sql.parser.SqlBaseLexer;
+import io.trino.sql.parser.SqlBaseParser;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Every syntax error of a script, found in a single parse of each statement.
+ * <p>
+ * Trino's parser stops at the first error. Here the statements are parsed with ANTLR's default
+ * error recovery instead, which skips or inserts tokens to carry on after an error, so a pasted query
+ * with several mistakes reports all of them at once. Errors the parser runs into while still
+ * recovering from an earlier one are not reported, and at most {@link #MAX_ERRORS_PER_STATEMENT} are
+ * reported per statement, as one mistake can derail the rest of a statement.
+ */
+public final class SyntaxDiagnostics
+{
+    public static final int MAX_ERRORS_PER_STATEMENT = 20;
+
+    private final ParserDfaCache dfaCache;
+
+    public SyntaxDiagnostics(ParserDfaCache dfaCache)
+    {
+        this.dfaCache = dfaCache;
+    }
+
+    /**
+     * Errors of all statements of {@code script}, in the order they appear in it.
+     */
+    public List<Diagnostic> check(String script)
+    {
+        Document document = new Document(script);
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        for (Document.Segment segment : document.getStatements()) {
+            for (Error error : errors(QueryFormatter.stripSemicolon(segment.sql))) {
+                diagnostics.add(new Diagnostic(
+                        new Document.Range(document.position(segment.start + error.start), document.position(segment.start + error.end)),
+                        error.message,
+                        error.syntaxError));
+            }
+        }
+        return diagnostics;
+    }
+
+    private List<Error> errors(String sql)
+    {
+        SqlBaseLexer lexer = new SqlBaseLexer(new CaseInsensitiveStream(CharStreams.fromString(sql)));
+        SqlBaseParser parser = new SqlBaseParser(new CommonTokenStream(lexer));
+        // text with an error of the lexer is never read from a TokenBuffer, so the listener sees it
+        dfaCache.initialize(lexer, parser);
+
+        CollectingListener listener = new CollectingListener(sql);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(listener);
+        parser.removeErrorListeners();
+        parser.addErrorListener(listener);
+        parser.addParseListener(new IdentifierListener(listener));
+        try {
+            parser.singleStatement();
+        }
+        catch (ParseCancellationException ignored) {
+            // too many errors
+        }
+        // identifiers are only checked when their rule ends
+        listener.errors.sort(Comparator.comparingInt(error -> error.start));
+        return listener.errors;
+    }
+
+    public static final class Diagnostic
+    {
+        public final Document.Range range;
+        public final String message;
+        // null for errors of the lexer and for identifiers Trino rejects
+        public final SyntaxError error;
+
+        public Diagnostic(Document.Range range, String message, SyntaxError error)
+        {
+            this.range = range;
+            this.message = message;
+            this.error = error;
+        }
+    }
+
+    /**
+     * An error within a statement, with UTF-16 offsets into it.
+     */
+    private static final class Error
+    {
+        private final int start;
+        private final int end;
+        private final String message;
+        private final SyntaxError syntaxError;
+
+        private Error(int start, int end, String message, SyntaxError syntaxError)
+        {
+            this.start = start;
+            this.end = end;
+            this.message = message;
+            this.syntaxError = syntaxError;
+        }
+    }
+
+    private static final class CollectingListener
+            extends BaseErrorListener
+    {
+        private final String sql;
+        private final List<Error> errors = new ArrayList<>();
+
+        CollectingListener(String sql)
+        {
+            this.sql = sql;
+        }
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String message, RecognitionException e)
+        {
+            if (recognizer instanceof Lexer) {
+                Lexer lexer = (Lexer) recognizer;
+                // up to and including the character the lexer failed at
+                add(lexer._tokenStartCharIndex, lexer.getInputStream().index() + 1, message, null);
+                return;
+            }
+
+            Parser parser = (Parser) recognizer;
+            Token token = (Token) offendingSymbol;
+            // without an exception, the parser is still in the state it reported the error from
+            SyntaxError error = e != null && e.getOffendingState() >= 0
+                    ? SyntaxError.of(token, e.getOffendingState(), e.getCtx())
+                    : SyntaxError.of(token, parser.getState(), parser.getContext());
+            String kind = message.startsWith("extraneous input") ? "extraneous input" : "mismatched input";
+            add(token, String.format("%s '%s'. Expecting: %s", kind, error.getOffendingToken(), String.join(", ", error.getExpected())), error);
+        }
+
+        void add(Token token, String message, SyntaxError error)
+        {
+            if (token.getType() == Token.EOF) {
+                add(token.getStartIndex(), token.getStartIndex(), message, error);
+            }
+            else {
+                add(token.getStartIndex(), token.getStopIndex() + 1, message, error);
+            }
+        }
+
+        /**
+         * @param start first code point
+         * @param end code point after the last
+         */
+        private void add(int start, int end, String message, SyntaxError error)
+        {
+            int length = sql.codePointCount(0, sql.length());
+            int startOffset = sql.offsetByCodePoints(0, Math.min(start, length));
+            int endOffset = sql.offsetByCodePoints(0, Math.min(Math.max(start, end), length));
+            errors.add(new Error(startOffset, endOffset, message, error));
+            if (errors.size() >= MAX_ERRORS_PER_STATEMENT) {
+                throw new ParseCancellationException(message);
+            }
+        }
+    }
+
+    /**
+     * Identifiers the grammar accepts but Trino rejects after parsing, with the same messages.
+     */
+    private static final class IdentifierListener
+            extends SqlBaseBaseListener
+    {
+        private final CollectingListener errors;
+
+        IdentifierListener(CollectingListener errors)
+        {
+            this.errors = errors;
+        }
+
+        @Override
+        public void exitBackQuotedIdentifier(SqlBaseParser.BackQuotedIdentifierContext context)
+        {
+            add(context, "backquoted identifiers are not supported; use double quotes to quote identifiers");
+        }
+
+        @Override
+        public void exitDigitIdentifier(SqlBaseParser.DigitIdentifierContext context)
+        {
+            add(context, "identifiers must not start with a digit; surround the identifier with double quotes");
+        }
+
+        private void add(ParserRuleContext context, String message)
+        {
+            errors.add(context.getStart(), message, null);
+        }
+    }
+}
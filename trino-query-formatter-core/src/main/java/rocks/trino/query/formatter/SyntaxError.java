@@ -0,0 +1,207 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.ParsingException;
+import io.trino.sql.parser.SqlBaseLexer;
+import io.trino.sql.parser.SqlBaseParser;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.InputMismatchException;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.NoViableAltException;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.util.Map.entry;
+
+/**
+ * A syntax error as the parser saw it when it failed: the offending token, the tokens it expected
+ * instead and the rules it was in, innermost first.
+ * <p>
+ * {@link ParsingException} only carries these as a rendered message; the state and rule context the
+ * parser failed in are read from its {@link RecognitionException}. Parsers created by a
+ * {@link ParserDfaCache} report every error with one, see {@link CapturingErrorStrategy}. Errors of
+ * the lexer, and errors of other parsers reported without one, are returned without them.
+ */
+public final class SyntaxError
+{
+    private static final Map<Integer, String> TOKEN_CLASSES = Map.ofEntries(
+            entry(Token.EOF, "<EOF>"),
+            entry(SqlBaseLexer.IDENTIFIER, "<identifier>"),
+            entry(SqlBaseLexer.DIGIT_IDENTIFIER, "<identifier>"),
+            entry(SqlBaseLexer.QUOTED_IDENTIFIER, "<identifier>"),
+            entry(SqlBaseLexer.BACKQUOTED_IDENTIFIER, "<identifier>"),
+            entry(SqlBaseLexer.STRING, "<string>"),
+            entry(SqlBaseLexer.UNICODE_STRING, "<string>"),
+            entry(SqlBaseLexer.BINARY_LITERAL, "<binary literal>"),
+            entry(SqlBaseLexer.INTEGER_VALUE, "<integer>"),
+            entry(SqlBaseLexer.DECIMAL_VALUE, "<decimal>"),
+            entry(SqlBaseLexer.DOUBLE_VALUE, "<double>"));
+
+    // token classes before keywords and operators
+    private static final Comparator<String> EXPECTED_ORDER = Comparator.comparing((String name) -> !name.startsWith("<"))
+            .thenComparing(Comparator.naturalOrder());
+
+    private final String offendingToken;
+    private final Set<String> expected;
+    private final List<String> ruleStack;
+
+    private SyntaxError(String offendingToken, Set<String> expected, List<String> ruleStack)
+    {
+        this.offendingToken = offendingToken;
+        this.expected = expected;
+        this.ruleStack = ruleStack;
+    }
+
+    public static SyntaxError of(ParsingException e)
+    {
+        if (e.getCause() instanceof RecognitionException) {
+            RecognitionException cause = (RecognitionException) e.getCause();
+            if (cause.getRecognizer() instanceof Lexer) {
+                return lexerError();
+            }
+            if (cause.getRecognizer() instanceof Parser && cause.getOffendingToken() != null && cause.getOffendingState() >= 0) {
+                return of(offendingToken(cause), cause.getOffendingState(), cause.getCtx());
+            }
+        }
+        return lexerError();
+    }
+
+    /**
+     * Text of the token the parser failed at, {@code <EOF>} at the end of the input, or null for
+     * errors of the lexer.
+     */
+    public String getOffendingToken()
+    {
+        return offendingToken;
+    }
+
+    /**
+     * Keywords and operators by their text, and other tokens by their class such as
+     * {@code <identifier>}; the classes first, then sorted by name.
+     */
+    public Set<String> getExpected()
+    {
+        return expected;
+    }
+
+    public List<String> getRuleStack()
+    {
+        return ruleStack;
+    }
+
+    public boolean isAtEndOfInput()
+    {
+        return "<EOF>".equals(offendingToken);
+    }
+
+    private static SyntaxError lexerError()
+    {
+        return new SyntaxError(null, Set.of(), List.of());
+    }
+
+    /**
+     * The token the decision that failed started at, for no viable alternative, as Trino reports it;
+     * the expected tokens are those of that decision's state.
+     */
+    private static Token offendingToken(RecognitionException e)
+    {
+        if (e instanceof NoViableAltException) {
+            return ((NoViableAltException) e).getStartToken();
+        }
+        return e.getOffendingToken();
+    }
+
+    private static String tokenText(Token token)
+    {
+        return token.getType() == Token.EOF ? "<EOF>" : token.getText();
+    }
+
+    static SyntaxError of(Token offendingToken, int state, RuleContext context)
+    {
+        return new SyntaxError(tokenText(offendingToken), Collections.unmodifiableSet(names(FollowSets.get().expected(state, context))), ruleStack(context));
+    }
+
+    /**
+     * Names of the tokens of {@link FollowSets#expected}, the classes first, then sorted by name.
+     */
+    public static Set<String> names(BitSet tokens)
+    {
+        Set<String> names = new TreeSet<>(EXPECTED_ORDER);
+        for (int bit = tokens.nextSetBit(0); bit >= 0; bit = tokens.nextSetBit(bit + 1)) {
+            names.add(bit == FollowSets.IDENTIFIER ? "<identifier>" : tokenName(bit - 1));
+        }
+        return names;
+    }
+
+    private static String tokenName(int type)
+    {
+        String name = TOKEN_CLASSES.get(type);
+        if (name == null) {
+            String literal = SqlBaseParser.VOCABULARY.getLiteralName(type);
+            // keywords and operators are quoted literals
+            name = literal == null ? "<" + SqlBaseParser.VOCABULARY.getSymbolicName(type).toLowerCase() + ">" : literal.substring(1, literal.length() - 1);
+        }
+        return name;
+    }
+
+    private static List<String> ruleStack(RuleContext context)
+    {
+        List<String> rules = new ArrayList<>();
+        for (; context != null; context = context.parent) {
+            if (context.getRuleIndex() >= 0) {
+                rules.add(SqlBaseParser.ruleNames[context.getRuleIndex()]);
+            }
+        }
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * Reports the errors that the default strategy reports without a {@link RecognitionException},
+     * a missing or an extra token, with one that holds the state and rule context the parser is in,
+     * so that {@link #of(ParsingException)} reads them from the error of the original parse.
+     */
+    static final class CapturingErrorStrategy
+            extends DefaultErrorStrategy
+    {
+        @Override
+        protected void reportUnwantedToken(Parser recognizer)
+        {
+            try {
+                super.reportUnwantedToken(recognizer);
+            }
+            catch (ParsingException e) {
+                throw withState(e, recognizer);
+            }
+        }
+
+        @Override
+        protected void reportMissingToken(Parser recognizer)
+        {
+            try {
+                super.reportMissingToken(recognizer);
+            }
+            catch (ParsingException e) {
+                throw withState(e, recognizer);
+            }
+        }
+
+        private static ParsingException withState(ParsingException e, Parser recognizer)
+        {
+            if (e.getCause() != null) {
+                return e;
+            }
+            // the parser is still in the state it failed in, at the offending token
+            return new ParsingException(e.getErrorMessage(), new InputMismatchException(recognizer), e.getLineNumber(), e.getColumnNumber());
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.CaseInsensitiveStream;
+import io.trino.sql.parser.SqlBaseLexer;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The edits that turn a statement into its formatted text, for editors that apply formatting as
+ * edits instead of replacing the document.
+ * <p>
+ * Formatting mostly changes the whitespace between tokens, so instead of a character diff both
+ * texts are lexed and their tokens aligned: equal tokens at the start and end are paired, and the
+ * tokens in between are paired by a Myers diff of their text. Tokens are compared ignoring case, so
+ * keywords whose case changed still pair. An edit is only emitted where the text between two paired
+ * tokens differs, which also replaces any tokens added or removed there, and where the case of a
+ * paired token changed. Changes far apart therefore give separate small edits. Only when the middle
+ * differs in more than {@link #MAX_DIFFERENCES} tokens is it replaced by a single edit.
+ */
+public final class TextEdits
+{
+    // the diff takes time and memory proportional to the square of the number of differences
+    private static final int MAX_DIFFERENCES = 1000;
+
+    private TextEdits()
+    {
+    }
+
+    /**
+     * Edits of {@code original}, in document order and not overlapping, whose positions refer to
+     * {@code original}.
+     */
+    public static List<TextEdit> between(String original, String formatted)
+    {
+        return between(original, formatted, new Document.Position(0, 0));
+    }
+
+    /**
+     * Same as {@link #between(String, String)}, for {@code original} that starts at {@code origin} of
+     * a larger document; the positions of the edits refer to that document.
+     */
+    public static List<TextEdit> between(String original, String formatted, Document.Position origin)
+    {
+        Tokens before = Tokens.lex(original);
+        Tokens after = Tokens.lex(formatted);
+
+        int prefix = 0;
+        while (prefix < before.count && prefix < after.count && before.matches(prefix, after, prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < before.count - prefix && suffix < after.count - prefix
+                && before.matches(before.count - 1 - suffix, after, after.count - 1 - suffix)) {
+            suffix++;
+        }
+
+        Builder edits = new Builder(original, formatted, origin);
+        for (int i = 0; i < prefix; i++) {
+            edits.pair(before, i, after, i);
+        }
+        // when the middle is too different to be worth aligning, it is replaced as a whole
+        int[] middle = diff(before, prefix, before.count - suffix, after, prefix, after.count - suffix);
+        for (int i = 0; middle != null && i < middle.length; i += 2) {
+            edits.pair(before, middle[i], after, middle[i + 1]);
+        }
+        for (int i = 0; i < suffix; i++) {
+            edits.pair(before, before.count - suffix + i, after, after.count - suffix + i);
+        }
+        edits.finish(before, after);
+        return edits.edits;
+    }
+
+    /**
+     * Pairs of matching tokens of {@code before} from {@code beforeStart} to {@code beforeEnd} and of
+     * {@code after} from {@code afterStart} to {@code afterEnd}, as a longest common subsequence,
+     * flattened into their indexes {@code [before, after, before, after, ...]} in order; or null when
+     * the ranges differ in more than {@link #MAX_DIFFERENCES} tokens.
+     */
+    private static int[] diff(Tokens before, int beforeStart, int beforeEnd, Tokens after, int afterStart, int afterEnd)
+    {
+        int n = beforeEnd - beforeStart;
+        int m = afterEnd - afterStart;
+        int max = Math.min(n + m, MAX_DIFFERENCES);
+        // v[offset + k] is the furthest x reached on diagonal k = x - y; trace keeps v after every
+        // round d, for diagonals -d to d, to walk the path back
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && before.matches(beforeStart + x, after, afterStart + y)) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+                    return pairs(trace, n, m, beforeStart, afterStart);
+                }
+            }
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+        }
+        return null;
+    }
+
+    private static int[] pairs(List<int[]> trace, int n, int m, int beforeStart, int afterStart)
+    {
+        int[] pairs = new int[2 * Math.min(n, m)];
+        int count = 0;
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d > 0; d--) {
+            int[] previous = trace.get(d - 1);
+            int k = x - y;
+            int previousK = k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1]) ? k + 1 : k - 1;
+            int previousX = previous[previousK + d - 1];
+            int previousY = previousX - previousK;
+            // the diagonal run of matching tokens after the insertion or deletion of round d
+            while (x > previousX && y > previousY) {
+                x--;
+                y--;
+                pairs[count++] = afterStart + y;
+                pairs[count++] = beforeStart + x;
+            }
+            x = previousX;
+            y = previousY;
+        }
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            pairs[count++] = afterStart + y;
+            pairs[count++] = beforeStart + x;
+        }
+        // collected backwards, so reversing also puts each before index ahead of its after index
+        int[] ordered = new int[count];
+        for (int i = 0; i < count; i++) {
+            ordered[i] = pairs[count - 1 - i];
+        }
+        return ordered;
+    }
+
+    public static final class TextEdit
+    {
+        public final Document.Range range;
+        public final String newText;
+
+        public TextEdit(Document.Range range, String newText)
+        {
+            this.range = range;
+            this.newText = newText;
+        }
+    }
+
+    /**
+     * The tokens of a text without whitespace, as UTF-16 offsets.
+     */
+    private static final class Tokens
+    {
+        private final String sql;
+        private int count;
+        private int[] start = new int[16];
+        private int[] end = new int[16];
+
+        private Tokens(String sql)
+        {
+            this.sql = sql;
+        }
+
+        static Tokens lex(String sql)
+        {
+            Tokens tokens = new Tokens(sql);
+            SqlBaseLexer lexer = new SqlBaseLexer(new CaseInsensitiveStream(CharStreams.fromString(sql)));
+            lexer.removeErrorListeners();
+
+            // token indexes count code points, offsets count UTF-16 code units
+            int codePoints = 0;
+            int offset = 0;
+            for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+                while (codePoints < token.getStartIndex()) {
+                    offset += Character.charCount(sql.codePointAt(offset));
+                    codePoints++;
+                }
+                int tokenStart = offset;
+                while (codePoints <= token.getStopIndex()) {
+                    offset += Character.charCount(sql.codePointAt(offset));
+                    codePoints++;
+                }
+                if (token.getType() != SqlBaseLexer.WS) {
+                    tokens.add(tokenStart, offset);
+                }
+            }
+            return tokens;
+        }
+
+        /**
+         * Whether the token has the same text as a token of {@code other}, ignoring case.
+         */
+        boolean matches(int index, Tokens other, int otherIndex)
+        {
+            int length = end[index] - start[index];
+            return length == other.end[otherIndex] - other.start[otherIndex]
+                    && sql.regionMatches(true, start[index], other.sql, other.start[otherIndex], length);
+        }
+
+        private void add(int tokenStart, int tokenEnd)
+        {
+            if (count == start.length) {
+                start = Arrays.copyOf(start, count * 2);
+                end = Arrays.copyOf(end, count * 2);
+            }
+            start[count] = tokenStart;
+            end[count] = tokenEnd;
+            count++;
+        }
+    }
+
+    private static final class Builder
+    {
+        private final String original;
+        private final String formatted;
+        private final Document.Position origin;
+        private final int[] lineStarts;
+        private final List<TextEdit> edits = new ArrayList<>();
+        // the tokens paired last, or -1
+        private int previousBefore = -1;
+        private int previousAfter = -1;
+
+        Builder(String original, String formatted, Document.Position origin)
+        {
+            this.original = original;
+            this.formatted = formatted;
+            this.origin = origin;
+            this.lineStarts = lineStarts(original);
+        }
+
+        /**
+         * Pairs the tokens, replacing the text between them and the tokens paired before if it
+         * differs, and the token itself if its case changed.
+         */
+        void pair(Tokens before, int beforeIndex, Tokens after, int afterIndex)
+        {
+            replaceIfDifferent(end(before, previousBefore), before.start[beforeIndex], end(after, previousAfter), after.start[afterIndex]);
+            replaceIfDifferent(before.start[beforeIndex], before.end[beforeIndex], after.start[afterIndex], after.end[afterIndex]);
+            previousBefore = beforeIndex;
+            previousAfter = afterIndex;
+        }
+
+        /**
+         * Replaces the text after the tokens paired last if it differs.
+         */
+        void finish(Tokens before, Tokens after)
+        {
+            replaceIfDifferent(end(before, previousBefore), original.length(), end(after, previousAfter), formatted.length());
+        }
+
+        void replaceIfDifferent(int beforeStart, int beforeEnd, int afterStart, int afterEnd)
+        {
+            if (beforeEnd - beforeStart != afterEnd - afterStart || !original.regionMatches(beforeStart, formatted, afterStart, afterEnd - afterStart)) {
+                add(beforeStart, beforeEnd, formatted.substring(afterStart, afterEnd));
+            }
+        }
+
+        void add(int start, int end, String newText)
+        {
+            edits.add(new TextEdit(new Document.Range(position(start), position(end)), newText));
+        }
+
+        private static int end(Tokens tokens, int index)
+        {
+            return index < 0 ? 0 : tokens.end[index];
+        }
+
+        private Document.Position position(int offset)
+        {
+            int line = Arrays.binarySearch(lineStarts, offset);
+            if (line < 0) {
+                line = -line - 2;
+            }
+            int character = offset - lineStarts[line];
+            return new Document.Position(origin.line + line, line == 0 ? origin.character + character : character);
+        }
+
+        private static int[] lineStarts(String text)
+        {
+            int[] starts = new int[16];
+            int count = 1;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                    }
+                    starts[count++] = i + 1;
+                }
+            }
+            return Arrays.copyOf(starts, count);
+        }
+    }
+}
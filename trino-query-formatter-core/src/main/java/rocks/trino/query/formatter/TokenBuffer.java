@@ -0,0 +1,136 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.CaseInsensitiveStream;
+import io.trino.sql.parser.SqlBaseLexer;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The tokens of a request's SQL, lexed once and read by everything that needs them: the parse of the
+ * statement and the completion context.
+ * <p>
+ * Parsers created by a {@link ParserDfaCache} read the tokens of the buffer of their thread, see
+ * {@link #run}, instead of lexing, when they parse the buffer's text or a prefix of it that ends at
+ * a token boundary, such as the text without its trailing semicolon. Other parsers lex as usual, and
+ * so does a parser of text with an error of the lexer, so that it reports the error as it would
+ * without a buffer.
+ */
+public final class TokenBuffer
+{
+    private static final ThreadLocal<TokenBuffer> CURRENT = new ThreadLocal<>();
+
+    private final String text;
+    private final List<Token> tokens;
+    // code point index of the first error of the lexer, or -1
+    private final int errorIndex;
+
+    private TokenBuffer(String text, List<Token> tokens, int errorIndex)
+    {
+        this.text = text;
+        this.tokens = tokens;
+        this.errorIndex = errorIndex;
+    }
+
+    public static TokenBuffer lex(ParserDfaCache dfaCache, String text)
+    {
+        SqlBaseLexer lexer = new SqlBaseLexer(new CaseInsensitiveStream(CharStreams.fromString(text)));
+        dfaCache.initialize(lexer);
+        ErrorListener errors = new ErrorListener();
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errors);
+        List<Token> tokens = List.copyOf(lexer.getAllTokens());
+        return new TokenBuffer(text, tokens, errors.errorIndex);
+    }
+
+    /**
+     * The buffer of the current thread, or null when it has none.
+     */
+    public static TokenBuffer current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs the task with this buffer as the buffer of the current thread.
+     */
+    public <T> T run(Supplier<T> task)
+    {
+        TokenBuffer previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.get();
+        }
+        finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * All tokens, including those of hidden channels, without EOF. They are shared, so readers that
+     * put them in a token stream of their own must copy them, as streams number their tokens.
+     */
+    public List<Token> getTokens()
+    {
+        return tokens;
+    }
+
+    /**
+     * Copies of the tokens of {@code input}, for a token stream of their own, when it is the text of
+     * this buffer or a prefix of it that ends at a token boundary and has no error of the lexer, or null.
+     */
+    public List<Token> tokensOf(CharStream input)
+    {
+        int size = input.size();
+        if (size > text.length() || !text.startsWith(input.getText(Interval.of(0, size - 1)))) {
+            return null;
+        }
+        if (errorIndex >= 0 && errorIndex < size) {
+            return null;
+        }
+        // tokens are indexed by code point
+        int end = 0;
+        while (end < tokens.size() && tokens.get(end).getStopIndex() < size) {
+            end++;
+        }
+        if (end < tokens.size() && tokens.get(end).getStartIndex() < size) {
+            return null;
+        }
+        List<Token> copies = new ArrayList<>(end);
+        for (Token token : tokens.subList(0, end)) {
+            copies.add(new CommonToken(token));
+        }
+        return copies;
+    }
+
+    private static final class ErrorListener
+            extends BaseErrorListener
+    {
+        private int errorIndex = -1;
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String message, RecognitionException e)
+        {
+            // the lexer skips the character and carries on, so the tokens are still complete enough
+            // for completion
+            if (errorIndex < 0) {
+                errorIndex = ((Lexer) recognizer)._tokenStartCharIndex;
+            }
+        }
+    }
+}
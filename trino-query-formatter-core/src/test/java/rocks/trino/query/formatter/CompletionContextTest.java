@@ -0,0 +1,104 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompletionContextTest
+{
+    private final ParserDfaCache dfaCache = new ParserDfaCache(QueryFormatter.DEFAULT_MAX_DFA_STATES);
+
+    @Test
+    public void testSelectList()
+    {
+        String sql = "WITH r AS (SELECT 1 x) SELECT ev.ty FROM events ev JOIN r ON true";
+        CompletionContext context = CompletionContext.at(dfaCache, sql, sql.indexOf(" FROM"));
+
+        Assert.assertEquals(CompletionContext.Clause.SELECT, context.getClause());
+        Assert.assertEquals("ty", context.getPrefix());
+        Assert.assertEquals("ev", context.getQualifier());
+        Assert.assertEquals(List.of("ev", "r"), context.getVisibleAliases());
+        Assert.assertEquals(Set.of("r"), context.getCtes());
+    }
+
+    @Test
+    public void testIncompleteStatement()
+    {
+        String sql = "SELECT * FROM orders o WHERE o.id IN (SELECT order_id FROM carts c WHERE ";
+        CompletionContext context = CompletionContext.at(dfaCache, sql, sql.length());
+
+        Assert.assertEquals(CompletionContext.Clause.WHERE, context.getClause());
+        Assert.assertEquals("", context.getPrefix());
+        Assert.assertNull(context.getQualifier());
+        Assert.assertEquals(List.of("c", "o"), context.getVisibleAliases());
+        Assert.assertTrue(context.getExpected().getExpected().contains("<identifier>"));
+        Assert.assertTrue(context.getExpected().getExpected().contains("NOT"));
+    }
+
+    @Test
+    public void testStatementOfScript()
+    {
+        String sql = "SELECT 1;\nSELECT o. FROM orders o WHERE ';' <> '';\nSELECT * FROM carts c WHERE ";
+        CompletionContext context = CompletionContext.at(dfaCache, sql, sql.indexOf(" FROM orders"));
+
+        Assert.assertEquals(CompletionContext.Clause.SELECT, context.getClause());
+        Assert.assertEquals("o", context.getQualifier());
+        Assert.assertEquals(List.of("o"), context.getVisibleAliases());
+        Assert.assertEquals(List.of("orders"), context.getRelations().get(0).tables);
+
+        context = CompletionContext.at(dfaCache, sql, sql.length());
+        Assert.assertEquals(CompletionContext.Clause.WHERE, context.getClause());
+        Assert.assertEquals(List.of("c"), context.getVisibleAliases());
+    }
+
+    @Test
+    public void testRelationColumns()
+    {
+        String sql = "WITH r (x) AS (SELECT 1) SELECT s. FROM (SELECT id, e.type AS kind, r.* FROM events e, r) s JOIN r ON true";
+        CompletionContext context = CompletionContext.at(dfaCache, sql, sql.indexOf(" FROM"));
+
+        SymbolTable.Relation subquery = context.getRelations().get(0);
+        Assert.assertEquals("s", subquery.alias);
+        Assert.assertEquals(List.of("id", "kind", "x"), subquery.columns);
+        SymbolTable.Relation cte = context.getRelations().get(1);
+        Assert.assertEquals("r", cte.name);
+        Assert.assertEquals(List.of("x"), cte.columns);
+        Assert.assertEquals(List.of(), cte.tables);
+    }
+
+    @Test
+    public void testReusePreviousContext()
+    {
+        String sql = "SELECT ev.t FROM events ev";
+        CompletionContext previous = CompletionContext.at(dfaCache, sql, sql.indexOf(" FROM"));
+        String typed = "SELECT ev.ty FROM events ev";
+        CompletionContext context = CompletionContext.at(dfaCache, TokenBuffer.lex(dfaCache, typed), typed.indexOf(" FROM"), previous);
+
+        Assert.assertEquals("ty", context.getPrefix());
+        Assert.assertSame(previous.getRelations(), context.getRelations());
+        Assert.assertEquals(List.of("events"), context.getRelations().get(0).tables);
+    }
+
+    @Test
+    public void testCheckpointDuringParse()
+    {
+        String sql = "SELECT " + String.join(" + ", Collections.nCopies(200, "(a * b)")) + " FROM events WHERE ";
+        AtomicInteger checkpoints = new AtomicInteger();
+        try {
+            CompletionContext.at(dfaCache, TokenBuffer.lex(dfaCache, sql), sql.length(), null, () -> {
+                if (checkpoints.incrementAndGet() == 3) {
+                    throw new CancellationException();
+                }
+            });
+            Assert.fail("parse was not abandoned");
+        }
+        catch (CancellationException expected) {
+            Assert.assertEquals(3, checkpoints.get());
+        }
+    }
+}
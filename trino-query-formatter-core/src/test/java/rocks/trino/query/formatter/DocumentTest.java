@@ -0,0 +1,96 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+public class DocumentTest
+{
+    @Test
+    public void testStatements()
+    {
+        Document document = new Document("SELECT ';' FROM a; -- b; c\nSELECT \"x;y\" /* ; */ FROM d;\n\n");
+
+        Assert.assertEquals(
+                List.of("SELECT ';' FROM a;", " -- b; c\nSELECT \"x;y\" /* ; */ FROM d;"),
+                statements(document));
+    }
+
+    @Test
+    public void testEditRelexesOneStatement()
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("SELECT a, b FROM table_").append(i).append(";\n");
+        }
+        Document document = new Document(text.toString());
+
+        int offset = document.offset(new Document.Position(500, 7));
+        document.replace(offset, offset + 1, "column_a");
+
+        Assert.assertTrue(document.getLastRelexedLength() < 100);
+        Assert.assertEquals("\nSELECT column_a, b FROM table_500;", document.getStatements().get(500).sql);
+        Assert.assertEquals(statements(new Document(document.getText())), statements(document));
+    }
+
+    @Test
+    public void testDivisionDoesNotRelexLaterEdits()
+    {
+        StringBuilder text = new StringBuilder("SELECT a / b FROM t;\n");
+        for (int i = 0; i < 1000; i++) {
+            text.append("SELECT a, b FROM table_").append(i).append(";\n");
+        }
+        Document document = new Document(text.toString());
+
+        int offset = document.offset(new Document.Position(500, 7));
+        document.replace(offset, offset + 1, "column_a");
+
+        Assert.assertTrue(document.getLastRelexedLength() < 100);
+
+        // an unclosed comment may be closed by the edit
+        document.replace(0, 0, "/* ");
+        offset = document.offset(new Document.Position(500, 7));
+        document.replace(offset, offset, "*/");
+
+        Assert.assertTrue(document.getLastRelexedLength() > 1000);
+        Assert.assertEquals(statements(new Document(document.getText())), statements(document));
+    }
+
+    @Test
+    public void testRandomEdits()
+    {
+        Random random = new Random(42);
+        String[] insertions = {";", "'", "\n", "--", "/*", "*/", "SELECT 1", " ", "\"", "\uD83D\uDE00"};
+        Document document = new Document("SELECT 1; SELECT 'a;b';\nSELECT 2 -- x\n; SELECT 3;");
+        for (int i = 0; i < 2000; i++) {
+            int start = random.nextInt(document.length() + 1);
+            int end = Math.min(document.length(), start + random.nextInt(3));
+            document.replace(start, end, insertions[random.nextInt(insertions.length)]);
+
+            Document expected = new Document(document.getText());
+            Assert.assertEquals(statements(expected), statements(document));
+        }
+    }
+
+    @Test
+    public void testPositions()
+    {
+        Document document = new Document("SELECT 1;\nSELECT\n  2;\n");
+
+        for (int offset = 0; offset <= document.length(); offset++) {
+            Assert.assertEquals(offset, document.offset(document.position(offset)));
+        }
+        Assert.assertEquals(2, document.position(18).line);
+        Assert.assertEquals(document.offset(new Document.Position(1, 6)), document.offset(new Document.Position(1, 100)));
+    }
+
+    private static List<String> statements(Document document)
+    {
+        return document.getStatements().stream()
+                .map(segment -> segment.sql)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,167 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.ParsingOptions;
+import io.trino.sql.parser.SqlParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ParserDfaCacheTest
+{
+    private static final ParsingOptions PARSING_OPTIONS = new ParsingOptions();
+    private static final long MAX_STATES = 2_000;
+
+    @Test
+    public void testStatesStayBoundedUnderSoak()
+            throws Exception
+    {
+        ParserDfaCache cache = new ParserDfaCache(MAX_STATES, 10);
+        SqlParser parser = cache.createSqlParser();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Long> heapSamples = new ArrayList<>();
+            for (int round = 0; round < 10; round++) {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int worker = 0; worker < 4; worker++) {
+                    Random random = new Random(round * 4 + worker);
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < 500; i++) {
+                            parser.createStatement(randomQuery(random, 3), PARSING_OPTIONS);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+
+                // the ceiling is checked every 10 parses, so the cache can overshoot it by what those add
+                Assert.assertTrue("DFA states: " + cache.getEstimatedStates(), cache.getEstimatedStates() < 3 * MAX_STATES);
+                heapSamples.add(usedHeap());
+            }
+
+            Assert.assertTrue(cache.getClearCount() > 0);
+            // generous margin, the point is that the heap does not grow with every round
+            long firstHalf = heapSamples.subList(0, 5).stream().mapToLong(Long::longValue).max().getAsLong();
+            long secondHalf = heapSamples.subList(5, 10).stream().mapToLong(Long::longValue).min().getAsLong();
+            Assert.assertTrue("heap grew: " + heapSamples, secondHalf < firstHalf + 64L * 1024 * 1024);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testClearDuringParses()
+            throws Exception
+    {
+        ParserDfaCache cache = new ParserDfaCache(Long.MAX_VALUE);
+        SqlParser parser = cache.createSqlParser();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int worker = 0; worker < 4; worker++) {
+                Random random = new Random(worker);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        String sql = randomQuery(random, 3);
+                        Assert.assertEquals(new SqlParser().createStatement(sql, PARSING_OPTIONS), parser.createStatement(sql, PARSING_OPTIONS));
+                    }
+                }));
+            }
+            for (int i = 0; i < 50; i++) {
+                cache.clear();
+                Thread.sleep(1);
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            Assert.assertEquals(50, cache.getClearCount());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long usedHeap()
+    {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static String randomQuery(Random random, int depth)
+    {
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(randomExpression(random, depth))
+                .append(", ")
+                .append(randomExpression(random, depth))
+                .append(" FROM t").append(random.nextInt(10));
+        if (random.nextBoolean()) {
+            sql.append(" JOIN u ON t.id = u.id");
+        }
+        if (random.nextBoolean()) {
+            sql.append(" WHERE ").append(randomExpression(random, depth));
+        }
+        if (random.nextBoolean()) {
+            sql.append(" GROUP BY 1 HAVING ").append(randomExpression(random, depth));
+        }
+        if (random.nextBoolean()) {
+            sql.append(" ORDER BY 1 LIMIT ").append(random.nextInt(100));
+        }
+        return sql.toString();
+    }
+
+    private static String randomExpression(Random random, int depth)
+    {
+        if (depth == 0) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    return "c" + random.nextInt(10);
+                case 1:
+                    return String.valueOf(random.nextInt(1000));
+                case 2:
+                    return "'s" + random.nextInt(10) + "'";
+                default:
+                    return "t.c" + random.nextInt(10);
+            }
+        }
+        String left = randomExpression(random, depth - 1);
+        String right = randomExpression(random, depth - 1);
+        // parenthesized, as predicates such as IN and BETWEEN do not nest without them
+        return "(" + randomOperation(random, left, right) + ")";
+    }
+
+    private static String randomOperation(Random random, String left, String right)
+    {
+        switch (random.nextInt(10)) {
+            case 0:
+                return left + " + " + right;
+            case 1:
+                return left + " * " + right;
+            case 2:
+                return left + " = " + right + " AND " + right + " <> " + left;
+            case 3:
+                return "CASE WHEN " + left + " > " + right + " THEN " + left + " ELSE " + right + " END";
+            case 4:
+                return "coalesce(" + left + ", " + right + ")";
+            case 5:
+                return "CAST(" + left + " AS varchar)";
+            case 6:
+                return left + " IN (" + right + ", " + left + ")";
+            case 7:
+                return left + " BETWEEN " + right + " AND " + left;
+            case 8:
+                return "(SELECT max(" + left + ") FROM v WHERE " + right + " IS NOT NULL)";
+            default:
+                return "NOT (" + left + " LIKE " + right + ")";
+        }
+    }
+}
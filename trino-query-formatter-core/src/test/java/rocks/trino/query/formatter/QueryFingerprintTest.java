@@ -0,0 +1,36 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.ParsingOptions;
+import io.trino.sql.parser.SqlParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueryFingerprintTest
+{
+    private static final SqlParser SQL_PARSER = new SqlParser();
+
+    @Test
+    public void testLiteralsAndCaseAreNormalized()
+    {
+        QueryFingerprint first = fingerprint("SELECT a, 'x' FROM Events WHERE id = 1 AND ts > TIMESTAMP '2021-01-01 00:00:00' AND t IN (1, 2, 3)");
+        QueryFingerprint second = fingerprint("select A, 'y' from events where ID = -42 and TS > timestamp '2020-05-05 10:00:00' and t in (7)");
+
+        Assert.assertEquals(first.canonicalSql, second.canonicalSql);
+        Assert.assertEquals(first.hash, second.hash);
+        Assert.assertEquals(32, first.hash.length());
+        Assert.assertFalse(first.canonicalSql.contains("'x'"));
+    }
+
+    @Test
+    public void testDifferentShapes()
+    {
+        Assert.assertNotEquals(
+                fingerprint("SELECT a FROM events WHERE id = 1").hash,
+                fingerprint("SELECT a FROM events WHERE id > 1").hash);
+    }
+
+    private static QueryFingerprint fingerprint(String sql)
+    {
+        return QueryFingerprint.of(SQL_PARSER.createStatement(sql, new ParsingOptions()));
+    }
+}
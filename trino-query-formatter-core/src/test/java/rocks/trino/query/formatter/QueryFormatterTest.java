@@ -0,0 +1,68 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.ParsingException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+public class QueryFormatterTest
+{
+    @Test
+    public void testFormat()
+    {
+        QueryFormatter formatter = new QueryFormatter();
+
+        Assert.assertEquals("SELECT *\nFROM\n  events\n", formatter.format("select * from events;"));
+        Assert.assertEquals(formatter.format("SELECT 1"), new QueryFormatter().format("SELECT 1"));
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testParseError()
+    {
+        new QueryFormatter().format("SELECT FROM");
+    }
+
+    @Test
+    public void testAnalyzeCteOnlyVisibleAfterItsDefinition()
+    {
+        RelationAnalysis.Result analysis = new QueryFormatter().analyze("" +
+                "WITH t AS (SELECT * FROM t), " +
+                "u AS (SELECT * FROM t) " +
+                "SELECT * FROM u JOIN t ON true", null, null);
+
+        // only the t inside the first CTE is the real table
+        List<String> tables = analysis.tables.stream().map(table -> table.name).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("t"), tables);
+        Assert.assertEquals(2, analysis.ctes.size());
+    }
+
+    @Test
+    public void testConcurrentUse()
+            throws Exception
+    {
+        QueryFormatter formatter = new QueryFormatter();
+        String sql = "SELECT a, (SELECT max(b) FROM t) FROM events WHERE id IN (SELECT id FROM orders)";
+        String expected = formatter.format(sql);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                results.add(executor.submit(() -> formatter.format(sql)));
+            }
+            for (Future<String> result : results) {
+                Assert.assertEquals(expected, result.get());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
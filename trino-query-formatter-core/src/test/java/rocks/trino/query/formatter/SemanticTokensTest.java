@@ -0,0 +1,51 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SemanticTokensTest
+{
+    @Test
+    public void testEncode()
+    {
+        int keyword = SemanticTokens.TOKEN_TYPES.indexOf("keyword");
+        int variable = SemanticTokens.TOKEN_TYPES.indexOf("variable");
+        int operator = SemanticTokens.TOKEN_TYPES.indexOf("operator");
+        int comment = SemanticTokens.TOKEN_TYPES.indexOf("comment");
+        int string = SemanticTokens.TOKEN_TYPES.indexOf("string");
+
+        Assert.assertArrayEquals(
+                new int[] {
+                        0, 0, 6, keyword, 0,
+                        0, 7, 1, operator, 0,
+                        1, 0, 4, keyword, 0,
+                        0, 5, 1, variable, 0,
+                        0, 2, 4, comment, 0,
+                        1, 0, 4, comment, 0,
+                        0, 5, 5, keyword, 0,
+                        0, 6, 5, string, 0},
+                SemanticTokens.encode("SELECT *\nFROM t /* a\nb */ WHERE 'x😀'"));
+    }
+
+    @Test
+    public void testIncrementalEncode()
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("SELECT a, 'b' FROM t").append(i).append(" -- c;\n;");
+        }
+        Document document = new Document(text.toString());
+        SemanticTokens tokens = new SemanticTokens();
+        int[] previous = tokens.encode(document);
+        Assert.assertArrayEquals(SemanticTokens.encode(document.getText()), previous);
+
+        int offset = document.offset(new Document.Position(100, 8));
+        document.replace(offset, offset, "x,\n  ");
+        int[] current = tokens.encode(document);
+        Assert.assertArrayEquals(SemanticTokens.encode(document.getText()), current);
+
+        SemanticTokens.Edit edit = SemanticTokens.delta(previous, current);
+        Assert.assertTrue(edit.data.length < 20);
+        Assert.assertEquals(current.length - previous.length, edit.data.length - edit.deleteCount);
+    }
+}
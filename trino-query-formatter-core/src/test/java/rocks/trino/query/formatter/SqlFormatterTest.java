@@ -0,0 +1,106 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.ParsingOptions;
+import io.trino.sql.parser.SqlParser;
+import io.trino.sql.tree.NodeLocation;
+import io.trino.sql.tree.Statement;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.stream.IntStream;
+
+public class SqlFormatterTest
+{
+    private static final SqlParser SQL_PARSER = new SqlParser();
+
+    @Test
+    public void testRepeatedSubqueriesFormatIdentically()
+    {
+        Statement statement = parse("" +
+                "SELECT * FROM (SELECT a, b FROM t WHERE a > 1) x " +
+                "JOIN (SELECT a, b FROM t WHERE a > 1) y ON x.a = y.a " +
+                "JOIN (SELECT a, b FROM t WHERE a < 1) z ON x.a = z.a");
+
+        String formatted = SqlFormatter.formatSql(statement);
+
+        Assert.assertEquals(statement, parse(formatted));
+        Assert.assertTrue(formatted.contains("a < 1"));
+    }
+
+    @Test
+    public void testSharedCacheAcrossStatements()
+    {
+        FormatCache cache = new FormatCache(100);
+        Statement first = parse("SELECT * FROM (SELECT a FROM t) x");
+        Statement second = parse("SELECT count(*) FROM (SELECT a FROM t) y");
+        Statement differentCase = parse("SELECT count(*) FROM (SELECT a FROM T) y");
+
+        Assert.assertEquals(SqlFormatter.formatSql(first), SqlFormatter.formatSql(first, cache));
+        Assert.assertTrue(cache.size() > 0);
+        Assert.assertEquals(SqlFormatter.formatSql(second), SqlFormatter.formatSql(second, cache));
+        Assert.assertEquals(SqlFormatter.formatSql(differentCase), SqlFormatter.formatSql(differentCase, cache));
+    }
+
+    @Test
+    public void testRepeatedSubtreeServedFromCache()
+    {
+        FormatCache cache = new FormatCache(100);
+        Statement first = parse("SELECT * FROM (SELECT a FROM t WHERE a > 1) x");
+        Statement second = parse("SELECT count(*) FROM (SELECT a FROM t WHERE a > 1) y");
+        Statement differentOperator = parse("SELECT count(*) FROM (SELECT a FROM t WHERE a < 1) y");
+        // "Aa" and "BB" have the same String#hashCode
+        Statement collidingLiteral = parse("SELECT count(*) FROM (SELECT a FROM t WHERE a = 'Aa') y");
+        Statement otherLiteral = parse("SELECT count(*) FROM (SELECT a FROM t WHERE a = 'BB') y");
+
+        SqlFormatter.formatSql(first, cache);
+        long hits = cache.hitCount();
+        String formatted = SqlFormatter.formatSql(second, cache);
+
+        Assert.assertTrue(cache.hitCount() > hits);
+        Assert.assertEquals(SqlFormatter.formatSql(second), formatted);
+
+        // same shape, different operator or literal: must not be served the cached text
+        hits = cache.hitCount();
+        Assert.assertEquals(SqlFormatter.formatSql(differentOperator), SqlFormatter.formatSql(differentOperator, cache));
+        SqlFormatter.formatSql(collidingLiteral, cache);
+        Assert.assertEquals(SqlFormatter.formatSql(otherLiteral), SqlFormatter.formatSql(otherLiteral, cache));
+        Assert.assertEquals(hits, cache.hitCount());
+    }
+
+    @Test
+    public void testSourceMap()
+    {
+        Statement statement = parse("select a,\n  b from t where 1 < a");
+        SourceMap.Builder builder = new SourceMap.Builder();
+
+        String formatted = SqlFormatter.formatSql(statement, FormatOptions.DEFAULT, SubtreeHashes.of(statement), null, builder);
+        SourceMap sourceMap = builder.build(formatted.length());
+
+        Assert.assertEquals(formatted, SqlFormatter.formatSql(statement));
+        NodeLocation column = sourceMap.locate(formatted.indexOf('b')).orElseThrow();
+        Assert.assertEquals(2, column.getLineNumber());
+        Assert.assertEquals(3, column.getColumnNumber());
+        NodeLocation table = sourceMap.locate(formatted.indexOf('t', formatted.indexOf("FROM"))).orElseThrow();
+        Assert.assertEquals(2, table.getLineNumber());
+        Assert.assertEquals(10, table.getColumnNumber());
+        NodeLocation identifier = sourceMap.locate(formatted.lastIndexOf('a')).orElseThrow();
+        Assert.assertEquals(2, identifier.getLineNumber());
+        Assert.assertEquals(22, identifier.getColumnNumber());
+        Assert.assertEquals(formatted.length(), IntStream.range(0, sourceMap.runs.length / 3).map(run -> sourceMap.runs[run * 3]).sum());
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void testDeadlineInsideExpression()
+    {
+        Statement statement = parse("SELECT * FROM t WHERE a IN (" + String.join(", ", Collections.nCopies(1000, "1")) + ")");
+
+        Deadline.after(Duration.ZERO).run(() -> SqlFormatter.formatSql(statement));
+    }
+
+    private static Statement parse(String sql)
+    {
+        return SQL_PARSER.createStatement(sql, new ParsingOptions());
+    }
+}
@@ -0,0 +1,34 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class SyntaxDiagnosticsTest
+{
+    @Test
+    public void testCheck()
+    {
+        SyntaxDiagnostics diagnostics = new SyntaxDiagnostics(new ParserDfaCache(QueryFormatter.DEFAULT_MAX_DFA_STATES));
+        List<SyntaxDiagnostics.Diagnostic> errors = diagnostics.check("" +
+                "select a,, b from t;\n" +
+                "select 1;\n" +
+                "select `c` from u where");
+
+        Assert.assertEquals(3, errors.size());
+        Assert.assertEquals(0, errors.get(0).range.start.line);
+        Assert.assertEquals(9, errors.get(0).range.start.character);
+        Assert.assertEquals(10, errors.get(0).range.end.character);
+        Assert.assertTrue(errors.get(0).message.contains("input ','"));
+
+        Assert.assertEquals(2, errors.get(1).range.start.line);
+        Assert.assertEquals(7, errors.get(1).range.start.character);
+        Assert.assertTrue(errors.get(1).message.startsWith("backquoted identifiers"));
+
+        Assert.assertEquals(2, errors.get(2).range.start.line);
+        Assert.assertEquals(23, errors.get(2).range.start.character);
+        Assert.assertTrue(errors.get(2).error.isAtEndOfInput());
+        Assert.assertTrue(errors.get(2).error.getExpected().contains("<identifier>"));
+    }
+}
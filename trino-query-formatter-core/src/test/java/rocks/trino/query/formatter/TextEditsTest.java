@@ -0,0 +1,71 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class TextEditsTest
+{
+    @Test
+    public void testWhitespaceEdits()
+    {
+        String original = "SELECT a,   b\nFROM events\nWHERE a = 1";
+        String formatted = "SELECT\n  a\n, b\nFROM\n  events\nWHERE (a = 1)\n";
+
+        List<TextEdits.TextEdit> edits = TextEdits.between(original, formatted);
+
+        Assert.assertEquals(formatted, apply(original, edits));
+        Assert.assertTrue(edits.stream().allMatch(edit -> edit.newText.length() < 10));
+    }
+
+    @Test
+    public void testFormattedStatements()
+    {
+        QueryFormatter formatter = new QueryFormatter();
+        for (String sql : List.of(
+                "select * from events;",
+                "SELECT\n  *\nFROM\n  events\n",
+                "with t as (select id, 'ä😀' x from orders) select id from t where x like '%;%' -- comment",
+                "select a from b union all select c from d order by 1 limit 10",
+                "")) {
+            String formatted = sql.isEmpty() ? "" : formatter.format(sql);
+            Assert.assertEquals(formatted, apply(sql, TextEdits.between(sql, formatted)));
+        }
+    }
+
+    @Test
+    public void testChangesFarApart()
+    {
+        StringBuilder columns = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            columns.append(i == 0 ? "" : ", ").append("c").append(i);
+        }
+        String original = "SELECT " + columns + " FROM t";
+        String formatted = original.replace(" c10,", " (c10),").replace(" c2990,", " (c2990),");
+
+        List<TextEdits.TextEdit> edits = TextEdits.between(original, formatted);
+
+        Assert.assertEquals(formatted, apply(original, edits));
+        Assert.assertEquals(4, edits.size());
+        Assert.assertEquals(" (", edits.get(0).newText);
+        Assert.assertEquals(")", edits.get(1).newText);
+    }
+
+    @Test
+    public void testNoEdits()
+    {
+        Assert.assertEquals(List.of(), TextEdits.between("SELECT *\nFROM\n  events\n", "SELECT *\nFROM\n  events\n"));
+    }
+
+    private static String apply(String original, List<TextEdits.TextEdit> edits)
+    {
+        Document document = new Document(original);
+        // from the last edit to the first, so that earlier positions stay valid
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            TextEdits.TextEdit edit = edits.get(i);
+            document.replace(document.offset(edit.range.start), document.offset(edit.range.end), edit.newText);
+        }
+        return document.getText();
+    }
+}
@@ -0,0 +1,35 @@
+package rocks.trino.query.formatter;
+
+import io.trino.sql.parser.CaseInsensitiveStream;
+import io.trino.sql.parser.ParsingException;
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBufferTest
+{
+    @Test
+    public void testParse()
+    {
+        ParserDfaCache dfaCache = new ParserDfaCache(QueryFormatter.DEFAULT_MAX_DFA_STATES);
+        TokenBuffer tokens = TokenBuffer.lex(dfaCache, "select a from b ;\n");
+        QueryFormatter formatter = new QueryFormatter(dfaCache.createSqlParser(), new FormatCache(10), true);
+
+        Assert.assertEquals(formatter.parse("select a from b"), formatter.parse(tokens));
+        Assert.assertEquals(7, tokens.tokensOf(new CaseInsensitiveStream(CharStreams.fromString("select a from b"))).size());
+        Assert.assertNull(tokens.tokensOf(CharStreams.fromString("select a fr")));
+        Assert.assertNull(tokens.tokensOf(CharStreams.fromString("select c")));
+        // the parse numbered copies, not the shared tokens
+        Assert.assertEquals(-1, tokens.getTokens().get(0).getTokenIndex());
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testLexerError()
+    {
+        ParserDfaCache dfaCache = new ParserDfaCache(QueryFormatter.DEFAULT_MAX_DFA_STATES);
+        TokenBuffer tokens = TokenBuffer.lex(dfaCache, "select a from b where c = 'd");
+        QueryFormatter formatter = new QueryFormatter(dfaCache.createSqlParser(), new FormatCache(10), true);
+
+        formatter.parse(tokens);
+    }
+}
@@ -0,0 +1,87 @@
+package rocks.trino.query.formatter;
+
+import com.google.common.cache.CacheBuilder;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * The text of every document that completion was requested for, split into statements, with the
+ * completion context of its last request. Editors send the whole document on every keystroke, so
+ * only the part that changed since the last request is lexed again, and only the statement around
+ * the cursor is lexed for the completion parse. While a word is typed that statement stays the
+ * same apart from the word, so the context of the last request is reused.
+ */
+final class CompletionDocuments
+{
+    // documents that are no longer edited are forgotten
+    private final ConcurrentMap<String, Entry> documents = CacheBuilder.newBuilder()
+            .expireAfterAccess(10, MINUTES)
+            .maximumSize(10_000)
+            .<String, Entry>build()
+            .asMap();
+
+    /**
+     * @param text the whole text of the document
+     * @param cursor UTF-16 offset in {@code text}
+     * @param partialKeywords see {@link CompletionContext#at(ParserDfaCache, TokenBuffer, int, CompletionContext, Runnable, boolean)};
+     * such contexts are neither reused nor kept for the next request
+     */
+    CompletionContext at(ParserDfaCache dfaCache, String uri, String text, int cursor, Runnable checkpoint, boolean partialKeywords)
+    {
+        Entry entry = documents.computeIfAbsent(uri, ignored -> new Entry());
+        // requests for the same document may run on several workers
+        synchronized (entry) {
+            entry.update(text);
+            List<Document.Segment> statements = entry.document.getStatements(cursor, cursor);
+            if (statements.isEmpty() && cursor > 0) {
+                // the cursor is at the end of the text, or right after a semicolon
+                statements = entry.document.getStatements(cursor - 1, cursor);
+            }
+            String sql = statements.isEmpty() ? "" : statements.get(0).sql;
+            int start = statements.isEmpty() ? cursor : statements.get(0).start;
+
+            CompletionContext previous = partialKeywords ? null : entry.context;
+            CompletionContext context = CompletionContext.at(dfaCache, TokenBuffer.lex(dfaCache, sql), cursor - start, previous, checkpoint, partialKeywords);
+            if (!partialKeywords) {
+                entry.context = context;
+            }
+            return context;
+        }
+    }
+
+    private static final class Entry
+    {
+        private String text;
+        private Document document;
+        private CompletionContext context;
+
+        /**
+         * Replaces the characters between the common prefix and suffix of the old and the new text.
+         */
+        void update(String text)
+        {
+            if (document == null) {
+                document = new Document(text);
+                this.text = text;
+                return;
+            }
+            int prefix = 0;
+            int maxPrefix = Math.min(text.length(), this.text.length());
+            while (prefix < maxPrefix && text.charAt(prefix) == this.text.charAt(prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            int maxSuffix = maxPrefix - prefix;
+            while (suffix < maxSuffix && text.charAt(text.length() - 1 - suffix) == this.text.charAt(this.text.length() - 1 - suffix)) {
+                suffix++;
+            }
+            if (prefix < text.length() - suffix || prefix < this.text.length() - suffix) {
+                document.replace(prefix, this.text.length() - suffix, text.substring(prefix, text.length() - suffix));
+            }
+            this.text = text;
+        }
+    }
+}
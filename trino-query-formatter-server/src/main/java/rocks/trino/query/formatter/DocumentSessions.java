@@ -0,0 +1,365 @@
+package rocks.trino.query.formatter;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Open documents of editor clients. A client opens a document with its full text and then only
+ * sends the ranges that changed, and each response only carries the statements whose text changed;
+ * the others keep the result sent before, and their ranges move with the edits before them. The
+ * results of every statement are cached by a hash of its text, so an edit only parses and formats
+ * the statements it touched.
+ */
+public final class DocumentSessions
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentSessions.class);
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final int MAX_CACHED_STATEMENTS = 4096;
+
+    private final Function<String, Main.Response> parser;
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    // Semantic tokens last sent for a document, also for documents that are not open
+    private final ConcurrentMap<String, TokensState> tokens = CacheBuilder.newBuilder()
+            .expireAfterAccess(10, MINUTES)
+            .<String, TokensState>build()
+            .asMap();
+    private final AtomicLong failedStatements = new AtomicLong();
+
+    /**
+     * @param parser parses and formats a single statement
+     */
+    public DocumentSessions(Function<String, Main.Response> parser)
+    {
+        this.parser = parser;
+    }
+
+    /**
+     * Number of statements the parser failed on with an unexpected exception, rather than a syntax
+     * error; their results are empty.
+     */
+    public long getFailedStatementCount()
+    {
+        return failedStatements.get();
+    }
+
+    public DocumentResponse open(DocumentRequest request)
+    {
+        Session session = new Session(new Document(request.text));
+        sessions.put(request.uri, session);
+        return session.results(request.uri);
+    }
+
+    /**
+     * Applies the changes in order, as LSP {@code textDocument/didChange} does. A change without a
+     * range replaces the whole text.
+     */
+    public DocumentResponse change(DocumentRequest request)
+    {
+        Session session = sessions.get(request.uri);
+        if (session == null) {
+            throw new IllegalArgumentException("Document is not open: " + request.uri);
+        }
+        return session.apply(request.uri, request.changes);
+    }
+
+    public DocumentResponse close(DocumentRequest request)
+    {
+        sessions.remove(request.uri);
+        tokens.remove(request.uri);
+        return new DocumentResponse(request.uri, List.of(), 0, 0, 0);
+    }
+
+    /**
+     * Formats only the statements that overlap the range, of the open document or else of the text
+     * in the request, and returns the edits that apply it.
+     */
+    public FormatRangeResponse formatRange(DocumentRequest request)
+    {
+        Session session = request.uri == null ? null : sessions.get(request.uri);
+        if (session == null) {
+            if (request.text == null) {
+                throw new IllegalArgumentException("Document is not open: " + request.uri);
+            }
+            session = new Session(new Document(request.text));
+        }
+        return session.formatRange(request.range);
+    }
+
+    /**
+     * Semantic tokens of the open document, or else of the text in the request. When the request
+     * names the result last returned for the document, only the edit from that result is returned,
+     * as for LSP {@code textDocument/semanticTokens/full/delta}.
+     */
+    public SemanticTokensResponse semanticTokens(DocumentRequest request)
+    {
+        TokensState state = request.uri == null ? new TokensState() : tokens.computeIfAbsent(request.uri, uri -> new TokensState());
+        Session session = request.uri == null ? null : sessions.get(request.uri);
+        if (session != null) {
+            synchronized (session) {
+                return state.encode(session.document, request.previousResultId);
+            }
+        }
+        if (request.text == null) {
+            throw new IllegalArgumentException("Document is not open: " + request.uri);
+        }
+        return state.encode(new Document(request.text), request.previousResultId);
+    }
+
+    private static class TokensState
+    {
+        private final SemanticTokens semanticTokens = new SemanticTokens();
+        private int[] data = new int[0];
+        private long resultId;
+
+        synchronized SemanticTokensResponse encode(Document document, String previousResultId)
+        {
+            int[] previous = data;
+            boolean delta = String.valueOf(resultId).equals(previousResultId);
+            data = semanticTokens.encode(document);
+            resultId++;
+            if (delta) {
+                return new SemanticTokensResponse(String.valueOf(resultId), null, List.of(SemanticTokens.delta(previous, data)));
+            }
+            return new SemanticTokensResponse(String.valueOf(resultId), data, null);
+        }
+    }
+
+    private class Session
+    {
+        private final Document document;
+        private int parses;
+        // Statement texts of the last response, by identity: an edit gives the statements it lexes
+        // again new texts and keeps the others, so unchanged statements are found without hashing them
+        private Set<String> sent = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Map<Long, CachedStatement> cache = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedStatement> eldest)
+            {
+                return size() > MAX_CACHED_STATEMENTS;
+            }
+        };
+
+        Session(Document document)
+        {
+            this.document = document;
+        }
+
+        synchronized DocumentResponse apply(String uri, List<Change> changes)
+        {
+            int relexed = 0;
+            for (Change change : changes) {
+                if (change.range == null) {
+                    document.replace(0, document.length(), change.text);
+                }
+                else {
+                    document.replace(document.offset(change.range.start), document.offset(change.range.end), change.text);
+                }
+                relexed += document.getLastRelexedLength();
+            }
+            DocumentResponse response = results(uri);
+            response.relexedCharacters = relexed;
+            return response;
+        }
+
+        synchronized DocumentResponse results(String uri)
+        {
+            int parsesBefore = parses;
+            List<Document.Segment> segments = document.getStatements();
+            Set<String> current = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<StatementResult> statements = new ArrayList<>();
+            for (int index = 0; index < segments.size(); index++) {
+                Document.Segment segment = segments.get(index);
+                current.add(segment.sql);
+                if (!sent.contains(segment.sql)) {
+                    statements.add(result(index, segment, response(segment)));
+                }
+            }
+            sent = current;
+            return new DocumentResponse(uri, statements, segments.size(), document.length(), parses - parsesBefore);
+        }
+
+        synchronized FormatRangeResponse formatRange(Document.Range range)
+        {
+            int parsesBefore = parses;
+            List<TextEdits.TextEdit> edits = new ArrayList<>();
+            List<Document.Segment> statements = document.getStatements(document.offset(range.start), document.offset(range.end));
+            for (Document.Segment segment : statements) {
+                String formattedSql = response(segment).formattedSql;
+                if (formattedSql == null) {
+                    continue;
+                }
+                // leading comments stay, and so do the semicolon and the whitespace after the last statement
+                String sql = segment.sql.substring(segment.statementStart - segment.start);
+                String end = sql.endsWith(";") ? ";" : sql.substring(CharMatcher.whitespace().trimTrailingFrom(sql).length());
+                formattedSql = CharMatcher.is('\n').trimTrailingFrom(formattedSql) + end;
+                edits.addAll(TextEdits.between(sql, formattedSql, document.position(segment.statementStart)));
+            }
+            return new FormatRangeResponse(edits, statements.size(), parses - parsesBefore);
+        }
+
+        private Main.Response response(Document.Segment segment)
+        {
+            long hash = HASH_FUNCTION.hashString(segment.sql, UTF_8).asLong();
+            CachedStatement cached = cache.get(hash);
+            if (cached == null || !cached.sql.equals(segment.sql)) {
+                cached = new CachedStatement(segment.sql, parse(segment.sql));
+                // whether a statement times out also depends on the load of the server
+                if (cached.response.timeout == null) {
+                    cache.put(hash, cached);
+                }
+                parses++;
+            }
+            return cached.response;
+        }
+
+        private Main.Response parse(String sql)
+        {
+            try {
+                return parser.apply(sql);
+            }
+            catch (RuntimeException e) {
+                // a statement the formatter cannot handle must not fail the other statements
+                failedStatements.incrementAndGet();
+                LOG.warn("Failed to format a statement of {} characters", sql.length(), e);
+                return new Main.Response(null, List.of(), null, null);
+            }
+        }
+
+        private StatementResult result(int index, Document.Segment segment, Main.Response response)
+        {
+            Document.Position start = document.position(segment.start);
+            Main.Response.ParseError parseError = response.parseError;
+            if (parseError != null) {
+                // rows and columns of the statement become rows and columns of the document
+                parseError = parseError.withPosition(
+                        start.line + parseError.row,
+                        parseError.row == 1 ? start.character + parseError.column : parseError.column);
+            }
+            return new StatementResult(index, new Document.Range(start, document.position(segment.end)), response.formattedSql, parseError);
+        }
+    }
+
+    private static class CachedStatement
+    {
+        private final String sql;
+        private final Main.Response response;
+
+        CachedStatement(String sql, Main.Response response)
+        {
+            this.sql = sql;
+            this.response = response;
+        }
+    }
+
+    public static class DocumentRequest
+    {
+        public String uri;
+        // for open
+        public String text;
+        // for change
+        public List<Change> changes;
+        // for formatRange
+        public Document.Range range;
+        // for semanticTokens
+        public String previousResultId;
+    }
+
+    public static class Change
+    {
+        public Document.Range range;
+        public String text;
+
+        public Change(Document.Range range, String text)
+        {
+            this.range = range;
+            this.text = text;
+        }
+    }
+
+    public static class DocumentResponse
+    {
+        public String uri;
+        // only the statements whose text changed since the previous response
+        public List<StatementResult> statements;
+        public int statementCount;
+        // characters lexed again and statements parsed to answer this request
+        public int relexedCharacters;
+        public int parsedStatements;
+
+        public DocumentResponse(String uri, List<StatementResult> statements, int statementCount, int relexedCharacters, int parsedStatements)
+        {
+            this.uri = uri;
+            this.statements = statements;
+            this.statementCount = statementCount;
+            this.relexedCharacters = relexedCharacters;
+            this.parsedStatements = parsedStatements;
+        }
+    }
+
+    public static class FormatRangeResponse
+    {
+        public List<TextEdits.TextEdit> edits;
+        // statements overlapping the range, and those of them that were not cached
+        public int statements;
+        public int parsedStatements;
+
+        public FormatRangeResponse(List<TextEdits.TextEdit> edits, int statements, int parsedStatements)
+        {
+            this.edits = edits;
+            this.statements = statements;
+            this.parsedStatements = parsedStatements;
+        }
+    }
+
+    public static class SemanticTokensResponse
+    {
+        public String resultId;
+        // either all tokens, or the edits of the previous result
+        public int[] data;
+        public List<SemanticTokens.Edit> edits;
+
+        public SemanticTokensResponse(String resultId, int[] data, List<SemanticTokens.Edit> edits)
+        {
+            this.resultId = resultId;
+            this.data = data;
+            this.edits = edits;
+        }
+    }
+
+    public static class StatementResult
+    {
+        // position among the statements of the document
+        public int index;
+        public Document.Range range;
+        public String formattedSql;
+        public Main.Response.ParseError parseError;
+
+        public StatementResult(int index, Document.Range range, String formattedSql, Main.Response.ParseError parseError)
+        {
+            this.index = index;
+            this.range = range;
+            this.formattedSql = formattedSql;
+            this.parseError = parseError;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package rocks.trino.query.formatter;
+
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * The newest version of every document that requests were sent for. Editors send a request on
+ * every keystroke but only show the result for the newest text, so work on an older version is
+ * wasted once a newer one has arrived.
+ */
+final class DocumentVersions
+{
+    // documents that are no longer edited are forgotten
+    private final ConcurrentMap<String, Integer> latest = CacheBuilder.newBuilder()
+            .expireAfterAccess(10, MINUTES)
+            .<String, Integer>build()
+            .asMap();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * Records that a request for the version arrived, and returns a check that becomes true once a
+     * request for a newer version of the same document arrives.
+     */
+    BooleanSupplier begin(String uri, int version)
+    {
+        latest.merge(uri, version, Math::max);
+        return () -> latest.getOrDefault(uri, version) > version;
+    }
+
+    void recordCancelled()
+    {
+        cancelled.incrementAndGet();
+    }
+
+    long getCancelledCount()
+    {
+        return cancelled.get();
+    }
+}
@@ -0,0 +1,180 @@
+package rocks.trino.query.formatter;
+
+import com.google.common.hash.HashCode;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Occurrence counts per 128-bit fingerprint hash, in an open-addressing table with linear probing.
+ * Keys live in a flat {@code long[]} so millions of distinct templates cost a few dozen bytes each
+ * plus their example text. Not thread-safe; give every worker its own table and {@link #merge} them.
+ */
+final class FingerprintCounts
+{
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // two longs (high, low) per slot; a slot is empty when its count is zero
+    private long[] keys;
+    private long[] counts;
+    private String[] templates;
+    private String[] examples;
+    private int mask;
+    private int size;
+
+    FingerprintCounts()
+    {
+        this(1024);
+    }
+
+    FingerprintCounts(int expectedSize)
+    {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    void add(QueryFingerprint fingerprint, String example)
+    {
+        add(fingerprint.getHashHigh(), fingerprint.getHashLow(), fingerprint.canonicalSql, example, 1);
+    }
+
+    void add(long high, long low, String template, String example, long count)
+    {
+        checkArgument(count > 0, "count must be positive");
+
+        int slot = find(high, low);
+        if (counts[slot] == 0) {
+            keys[2 * slot] = high;
+            keys[2 * slot + 1] = low;
+            templates[slot] = template;
+            examples[slot] = example;
+            size++;
+        }
+        counts[slot] += count;
+
+        if (size > (mask + 1) * LOAD_FACTOR) {
+            rehash();
+        }
+    }
+
+    void merge(FingerprintCounts other)
+    {
+        for (int slot = 0; slot < other.counts.length; slot++) {
+            if (other.counts[slot] != 0) {
+                add(other.keys[2 * slot], other.keys[2 * slot + 1], other.templates[slot], other.examples[slot], other.counts[slot]);
+            }
+        }
+    }
+
+    /**
+     * Returns the {@code n} most frequent templates, most frequent first.
+     */
+    List<Template> top(int n)
+    {
+        PriorityQueue<Template> top = new PriorityQueue<>(Comparator.comparingLong((Template template) -> template.count));
+        for (int slot = 0; slot < counts.length; slot++) {
+            if (counts[slot] == 0) {
+                continue;
+            }
+            if (top.size() < n) {
+                top.add(template(slot));
+            }
+            else if (counts[slot] > top.peek().count) {
+                top.poll();
+                top.add(template(slot));
+            }
+        }
+
+        List<Template> result = new ArrayList<>(top);
+        result.sort(Comparator.comparingLong((Template template) -> template.count).reversed());
+        return result;
+    }
+
+    private Template template(int slot)
+    {
+        return new Template(
+                hex(keys[2 * slot], keys[2 * slot + 1]),
+                counts[slot],
+                templates[slot],
+                examples[slot]);
+    }
+
+    private static String hex(long high, long low)
+    {
+        // same byte order as QueryFingerprint#hash
+        byte[] bytes = ByteBuffer.allocate(16)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(low)
+                .putLong(high)
+                .array();
+        return HashCode.fromBytes(bytes).toString();
+    }
+
+    private int find(long high, long low)
+    {
+        // murmur3 output is uniformly distributed, so the low bits are a good slot index
+        int slot = (int) low & mask;
+        while (counts[slot] != 0 && (keys[2 * slot] != high || keys[2 * slot + 1] != low)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash()
+    {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        String[] oldTemplates = templates;
+        String[] oldExamples = examples;
+
+        allocate(counts.length * 2);
+        for (int slot = 0; slot < oldCounts.length; slot++) {
+            if (oldCounts[slot] != 0) {
+                int newSlot = find(oldKeys[2 * slot], oldKeys[2 * slot + 1]);
+                keys[2 * newSlot] = oldKeys[2 * slot];
+                keys[2 * newSlot + 1] = oldKeys[2 * slot + 1];
+                counts[newSlot] = oldCounts[slot];
+                templates[newSlot] = oldTemplates[slot];
+                examples[newSlot] = oldExamples[slot];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new long[2 * capacity];
+        counts = new long[capacity];
+        templates = new String[capacity];
+        examples = new String[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    static class Template
+    {
+        public final String hash;
+        public final long count;
+        public final String template;
+        public final String example;
+
+        Template(String hash, long count, String template, String example)
+        {
+            this.hash = hash;
+            this.count = count;
+            this.template = template;
+            this.example = example;
+        }
+    }
+}
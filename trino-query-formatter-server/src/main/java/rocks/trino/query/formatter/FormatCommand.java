@@ -0,0 +1,60 @@
+package rocks.trino.query.formatter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Formats a statement from standard input or a file, for use as an editor or pre-commit formatter.
+ * This is also the entry point of the native executable, which does not include the HTTP server.
+ * <p>
+ * Usage: {@code format [file]} prints the formatted statement, or the parse error to standard error
+ * with exit code 1. {@code format --json} reads a {@link Main.Request} and prints the
+ * {@link Main.Response} that {@code /v1/parse} would return.
+ */
+public final class FormatCommand
+{
+    private FormatCommand()
+    {
+    }
+
+    public static void main(String[] args)
+            throws IOException
+    {
+        boolean json = args.length > 0 && args[0].equals("--json");
+        String input;
+        if (args.length > 0 && !json) {
+            input = new String(Files.readAllBytes(Paths.get(args[0])), UTF_8);
+        }
+        else {
+            input = new String(System.in.readAllBytes(), UTF_8);
+        }
+
+        int exitCode = run(input, json, System.out, System.err);
+        System.out.flush();
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    static int run(String input, boolean json, PrintStream out, PrintStream err)
+    {
+        if (json) {
+            out.println(Main.GSON.toJson(Main.parse(Main.GSON.fromJson(input, Main.Request.class))));
+            return 0;
+        }
+
+        Main.Request request = new Main.Request(input, false);
+        request.skipSuggestions = true;
+        Main.Response response = Main.parse(request);
+        if (response.parseError != null) {
+            err.printf("line %d:%d: %s%n", response.parseError.row, response.parseError.column, response.parseError.message);
+            return 1;
+        }
+        out.print(response.formattedSql);
+        return 0;
+    }
+}
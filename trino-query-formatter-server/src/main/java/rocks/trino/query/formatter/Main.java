@@ -0,0 +1,461 @@
+package rocks.trino.query.formatter;
+
+import com.google.common.collect.EvictingQueue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.trino.sql.parser.ParsingException;
+import io.trino.sql.tree.Statement;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static spark.Spark.get;
+import static spark.Spark.post;
+
+public class Main
+{
+    static final Gson GSON = new GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create();
+
+    // Re-parsing the formatted output doubles the cost of a request, so it is off by default; turn it
+    // on with -Dformatter.verify=true to check the formatter against a new workload
+    private static final boolean VERIFY_FORMATTING = Boolean.parseBoolean(System.getProperty("formatter.verify", "false"));
+
+    // ANTLR never evicts DFA states on its own; drop them once they exceed the ceiling
+    private static final ParserDfaCache DFA_CACHE = new ParserDfaCache(Long.getLong("formatter.dfa.max-states", QueryFormatter.DEFAULT_MAX_DFA_STATES));
+    private static final QueryFormatter FORMATTER = new QueryFormatter(
+            DFA_CACHE,
+            new FormatCache(QueryFormatter.DEFAULT_FORMAT_CACHE_SIZE),
+            VERIFY_FORMATTING);
+    // With -Dformatter.parser-mode=isolated, requests run on workers that each own a parser, so they
+    // do not contend on the shared DFA; null in the default shared mode
+    private static final ParserWorkers PARSER_WORKERS = createParserWorkers();
+    private static final DocumentVersions DOCUMENT_VERSIONS = new DocumentVersions();
+    // The statements and last completion context of each document, reused while a word is typed
+    private static final CompletionDocuments COMPLETION_DOCUMENTS = new CompletionDocuments();
+    // Requests that do not set timeout_millis fail once they took this long, including time spent queued
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMillis(Long.getLong("formatter.request-timeout-ms", 5_000));
+    private static final AtomicLong TIMED_OUT_REQUESTS = new AtomicLong();
+    // The inputs of the last timed out requests, to find out which statements are slow
+    private static final Queue<String> RECENT_TIMEOUTS = EvictingQueue.create(20);
+    private static final DocumentSessions DOCUMENT_SESSIONS = new DocumentSessions(sql -> {
+        Request request = new Request(sql, false);
+        request.skipSuggestions = true;
+        return execute(request, Main::parse);
+    });
+
+    private Main()
+    {
+    }
+
+    public static void main(String[] args)
+            throws IOException
+    {
+        if (args.length > 0 && args[0].equals("dedup")) {
+            QueryLogDeduplicator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("format")) {
+            FormatCommand.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // The keyword tables take a moment to compute; do it before the first completion
+        FollowSets.get();
+
+        // Every handler takes the JSON request body and returns the response to serialize
+        Map<String, Function<String, Object>> handlers = ImmutableMap.<String, Function<String, Object>>builder()
+                .put("parse", body -> execute(GSON.fromJson(body, Request.class), Main::parse))
+                .put("analyze", body -> execute(GSON.fromJson(body, Request.class), Main::analyze))
+                .put("fingerprint", body -> execute(GSON.fromJson(body, Request.class), Main::fingerprint))
+                .put("diagnostics", body -> execute(GSON.fromJson(body, Request.class), Main::diagnostics))
+                .put("documents/open", body -> DOCUMENT_SESSIONS.open(GSON.fromJson(body, DocumentSessions.DocumentRequest.class)))
+                .put("documents/change", body -> DOCUMENT_SESSIONS.change(GSON.fromJson(body, DocumentSessions.DocumentRequest.class)))
+                .put("documents/close", body -> DOCUMENT_SESSIONS.close(GSON.fromJson(body, DocumentSessions.DocumentRequest.class)))
+                .put("documents/format-range", body -> DOCUMENT_SESSIONS.formatRange(GSON.fromJson(body, DocumentSessions.DocumentRequest.class)))
+                .put("documents/semantic-tokens", body -> DOCUMENT_SESSIONS.semanticTokens(GSON.fromJson(body, DocumentSessions.DocumentRequest.class)))
+                .build();
+
+        handlers.forEach((method, handler) -> post("/v1/" + method, (req, res) -> {
+            return handler.apply(req.body());
+        }, GSON::toJson));
+        get("/v1/metrics", (req, res) -> metrics(), GSON::toJson);
+        get("/v1/timeouts", (req, res) -> recentTimeouts(), GSON::toJson);
+
+        // Local editor integrations can skip TCP and HTTP with -Dformatter.socket=/path/to/socket
+        String socketPath = System.getProperty("formatter.socket");
+        if (socketPath != null) {
+            new UnixSocketServer(Paths.get(socketPath), handlers).start();
+        }
+
+        // Load balancers should only route to the server once /v1/ready returns 200
+        Warmup warmup = new Warmup(
+                request -> execute(request, Main::parse),
+                Integer.getInteger("formatter.warmup.iterations", 10),
+                PARSER_WORKERS == null ? 1 : PARSER_WORKERS.getWorkers());
+        get("/v1/ready", (req, res) -> {
+            if (!warmup.isDone()) {
+                res.status(503);
+                return "warming up";
+            }
+            return "ready";
+        });
+        warmup.start();
+    }
+
+    private static ParserWorkers createParserWorkers()
+    {
+        String mode = System.getProperty("formatter.parser-mode", "shared");
+        switch (mode) {
+            case "shared":
+                return null;
+            case "isolated":
+                int workers = Integer.getInteger("formatter.parser-workers", Runtime.getRuntime().availableProcessors());
+                return new ParserWorkers(workers, DFA_CACHE.getMaxStates(), FORMATTER.getFormatCache(), VERIFY_FORMATTING);
+            default:
+                throw new IllegalArgumentException("Unknown parser mode: " + mode);
+        }
+    }
+
+    /**
+     * Runs the handler unless a request for a newer version of the same document arrives first;
+     * requests for older versions that are still queued are dropped, and running ones stop at the
+     * next phase. Requests that pass their deadline fail with a timeout response.
+     */
+    static Response execute(Request request, BiFunction<Request, QueryFormatter, Response> handler)
+    {
+        if (request.uri != null && request.version != null) {
+            request.superseded = DOCUMENT_VERSIONS.begin(request.uri, request.version);
+        }
+        Deadline deadline = Deadline.after(request.timeoutMillis == null ? REQUEST_TIMEOUT : Duration.ofMillis(request.timeoutMillis));
+        Function<QueryFormatter, Response> task = formatter -> deadline.run(() -> {
+            request.checkSuperseded();
+            return handler.apply(request, formatter);
+        });
+        try {
+            if (PARSER_WORKERS == null) {
+                return task.apply(FORMATTER);
+            }
+            return PARSER_WORKERS.execute(task);
+        }
+        catch (CancellationException e) {
+            DOCUMENT_VERSIONS.recordCancelled();
+            Response response = new Response(null, Collections.emptyList(), null, null);
+            response.cancelled = true;
+            return response;
+        }
+        catch (DeadlineExceededException e) {
+            TIMED_OUT_REQUESTS.incrementAndGet();
+            synchronized (RECENT_TIMEOUTS) {
+                RECENT_TIMEOUTS.add(request.sql);
+            }
+            Response response = new Response(null, Collections.emptyList(), null, null);
+            response.timeout = new Response.Timeout(e.getPhase(), e.getElapsed().toMillis(), e.getTimeout().toMillis());
+            return response;
+        }
+    }
+
+    public static Response parse(Request request)
+    {
+        return parse(request, FORMATTER);
+    }
+
+    public static Response parse(Request request, QueryFormatter formatter)
+    {
+        String sql = request.sql;
+        sql = QueryFormatter.stripSemicolon(sql);
+
+        String formattedSql = null;
+        Response.ParseError parseError = null;
+        RelationAnalysis.Result analysis = null;
+        SourceMap sourceMap = null;
+
+        // Lexed once for parsing and the completion context, by the parser of the worker running the
+        // request
+        ParserDfaCache dfaCache = dfaCache(formatter);
+        TokenBuffer tokens = TokenBuffer.lex(dfaCache, request.sql);
+        try {
+            Statement statement = formatter.parse(tokens);
+            request.checkSuperseded();
+
+            // All analyses share the formatter's walk over the tree
+            List<NodeAnalysis> analyses = new ArrayList<>();
+            RelationAnalysis relationAnalysis = null;
+            if (request.includeAnalysis) {
+                relationAnalysis = new RelationAnalysis(sql, request.catalog, request.schema);
+                analyses.add(relationAnalysis);
+            }
+            SourceMap.Builder sourceMapBuilder = request.includeSourceMap ? new SourceMap.Builder() : null;
+            formattedSql = formatter.format(statement, analyses, sourceMapBuilder);
+            if (sourceMapBuilder != null) {
+                sourceMap = sourceMapBuilder.build(formattedSql.length());
+            }
+            if (relationAnalysis != null) {
+                analysis = relationAnalysis.getResult();
+            }
+        }
+        catch (ParsingException e) {
+            parseError = new Response.ParseError(e, SyntaxError.of(e));
+        }
+
+        // Complete or not, one recovering parse gives the clause, scope and expected tokens at the
+        // cursor; requests that only format can skip it
+        Collection<String> suggestions = Collections.emptyList();
+        Collection<String> autoSuggestions = null;
+        if (!request.skipSuggestions) {
+            request.checkSuperseded();
+            int cursor = request.cursor == null ? request.sql.length() : Math.min(request.cursor, request.sql.length());
+            CompletionContext context = completionContext(request, dfaCache, tokens, cursor, false);
+            suggestions = Suggestions.fromContext(context);
+            if (request.includeAutoSuggestions) {
+                // a keyword at the cursor is complete for the suggestions, and still being typed for
+                // the completions
+                CompletionContext words = context.isAfterKeyword() ? completionContext(request, dfaCache, tokens, cursor, true) : context;
+                autoSuggestions = Suggestions.autoComplete(words);
+            }
+        }
+
+        Response response = new Response(formattedSql, suggestions, autoSuggestions, parseError);
+        response.analysis = analysis;
+        response.sourceMap = sourceMap;
+        if (request.includeEdits && formattedSql != null) {
+            response.edits = TextEdits.between(request.sql, formattedSql);
+        }
+        return response;
+    }
+
+    /**
+     * The context of requests with the editor's {@code uri} comes from the statement around the
+     * cursor in the document, see {@link CompletionDocuments}; otherwise from the tokens of the request.
+     */
+    private static CompletionContext completionContext(Request request, ParserDfaCache dfaCache, TokenBuffer tokens, int cursor, boolean partialKeywords)
+    {
+        if (request.uri == null) {
+            return CompletionContext.at(dfaCache, tokens, cursor, null, request::checkSuperseded, partialKeywords);
+        }
+        return COMPLETION_DOCUMENTS.at(dfaCache, request.uri, request.sql, cursor, request::checkSuperseded, partialKeywords);
+    }
+
+    /**
+     * Returns the tables, CTEs, aliases and columns referenced by the statement, without formatting it.
+     */
+    public static Response analyze(Request request)
+    {
+        return analyze(request, FORMATTER);
+    }
+
+    public static Response analyze(Request request, QueryFormatter formatter)
+    {
+        Response response = new Response(null, Collections.emptyList(), null, null);
+        try {
+            response.analysis = formatter.analyze(request.sql, request.catalog, request.schema);
+        }
+        catch (ParsingException e) {
+            response.parseError = new Response.ParseError(e, SyntaxError.of(e));
+        }
+        return response;
+    }
+
+    /**
+     * Returns the canonical text and hash shared by all statements of the same shape.
+     */
+    public static Response fingerprint(Request request)
+    {
+        return fingerprint(request, FORMATTER);
+    }
+
+    public static Response fingerprint(Request request, QueryFormatter formatter)
+    {
+        Response response = new Response(null, Collections.emptyList(), null, null);
+        try {
+            response.fingerprint = formatter.fingerprint(request.sql);
+        }
+        catch (ParsingException e) {
+            response.parseError = new Response.ParseError(e, SyntaxError.of(e));
+        }
+        return response;
+    }
+
+    /**
+     * Returns every syntax error of every statement of the script, instead of only the first one.
+     */
+    public static Response diagnostics(Request request)
+    {
+        return diagnostics(request, FORMATTER);
+    }
+
+    public static Response diagnostics(Request request, QueryFormatter formatter)
+    {
+        Response response = new Response(null, Collections.emptyList(), null, null);
+        // parsed by the parser of the worker running the request, as for parse
+        response.diagnostics = new SyntaxDiagnostics(dfaCache(formatter)).check(request.sql);
+        return response;
+    }
+
+    private static ParserDfaCache dfaCache(QueryFormatter formatter)
+    {
+        return formatter.getParserDfaCache() == null ? DFA_CACHE : formatter.getParserDfaCache();
+    }
+
+    public static Map<String, Object> metrics()
+    {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long dfaStates = DFA_CACHE.getEstimatedStates();
+        long dfaClears = DFA_CACHE.getClearCount();
+        if (PARSER_WORKERS != null) {
+            dfaStates += PARSER_WORKERS.getEstimatedStates();
+            dfaClears += PARSER_WORKERS.getClearCount();
+        }
+        metrics.put("dfa_states", dfaStates);
+        metrics.put("dfa_max_states", DFA_CACHE.getMaxStates());
+        metrics.put("dfa_clears", dfaClears);
+        metrics.put("format_cache_size", FORMATTER.getFormatCache().size());
+        metrics.put("format_cache_hits", FORMATTER.getFormatCache().hitCount());
+        metrics.put("cancelled_requests", DOCUMENT_VERSIONS.getCancelledCount());
+        metrics.put("timed_out_requests", TIMED_OUT_REQUESTS.get());
+        metrics.put("failed_document_statements", DOCUMENT_SESSIONS.getFailedStatementCount());
+        return metrics;
+    }
+
+    public static List<String> recentTimeouts()
+    {
+        synchronized (RECENT_TIMEOUTS) {
+            return ImmutableList.copyOf(RECENT_TIMEOUTS);
+        }
+    }
+
+    public static class Request
+    {
+        public String sql;
+        public boolean includeAutoSuggestions;
+        public boolean includeAnalysis;
+        // Return the formatting as edits of sql, for editors that apply it as edits
+        public boolean includeEdits;
+        // Map formatted offsets to the locations of the nodes in sql they were written for
+        public boolean includeSourceMap;
+        // Session catalog and schema, used to fully qualify table names in the analysis
+        public String catalog;
+        public String schema;
+        // Editor document and its version; a request for a newer version cancels this one
+        public String uri;
+        public Integer version;
+        // Overrides the server's request timeout
+        public Long timeoutMillis;
+        // Offset in sql that suggestions are for; the end of sql by default
+        public Integer cursor;
+        // Leave out suggestions and auto suggestions, for requests that only format
+        public boolean skipSuggestions;
+
+        private transient BooleanSupplier superseded;
+
+        public Request(String sql, boolean includeAutoSuggestions)
+        {
+            this.sql = sql;
+            this.includeAutoSuggestions = includeAutoSuggestions;
+        }
+
+        boolean isSuperseded()
+        {
+            return superseded != null && superseded.getAsBoolean();
+        }
+
+        void checkSuperseded()
+        {
+            if (isSuperseded()) {
+                throw new CancellationException("Superseded by a newer version of " + uri);
+            }
+        }
+    }
+
+    public static class Response
+    {
+        public String formattedSql;
+        public Collection<String> suggestions;
+        public Collection<String> autoSuggestions;
+        public ParseError parseError;
+        public RelationAnalysis.Result analysis;
+        public QueryFingerprint fingerprint;
+        public List<TextEdits.TextEdit> edits;
+        public SourceMap sourceMap;
+        public List<SyntaxDiagnostics.Diagnostic> diagnostics;
+        // Set when a newer version of the document made this result obsolete
+        public Boolean cancelled;
+        // Set when the request did not finish before its deadline
+        public Timeout timeout;
+
+        public Response(String formattedSql, Collection<String> suggestions, Collection<String> autoSuggestions, ParseError parseError)
+        {
+            this.formattedSql = formattedSql;
+            this.suggestions = suggestions;
+            this.autoSuggestions = autoSuggestions;
+            this.parseError = parseError;
+        }
+
+        public static class Timeout
+        {
+            // lexing, parsing, formatting or completion
+            public String phase;
+            public long elapsedMillis;
+            public long timeoutMillis;
+
+            public Timeout(String phase, long elapsedMillis, long timeoutMillis)
+            {
+                this.phase = phase;
+                this.elapsedMillis = elapsedMillis;
+                this.timeoutMillis = timeoutMillis;
+            }
+        }
+
+        public static class ParseError
+        {
+            public String message;
+            public int row;
+            public int column;
+            public String offendingToken;
+            public Collection<String> expected;
+            public List<String> ruleStack;
+
+            public ParseError(String message, int row, int column)
+            {
+                this.message = message;
+                this.row = row;
+                this.column = column;
+            }
+
+            public ParseError(ParsingException e, SyntaxError error)
+            {
+                this(e.getErrorMessage(), e.getLineNumber(), e.getColumnNumber());
+                this.offendingToken = error.getOffendingToken();
+                this.expected = error.getExpected();
+                this.ruleStack = error.getRuleStack();
+            }
+
+            public ParseError withPosition(int row, int column)
+            {
+                ParseError moved = new ParseError(message, row, column);
+                moved.offendingToken = offendingToken;
+                moved.expected = expected;
+                moved.ruleStack = ruleStack;
+                return moved;
+            }
+        }
+    }
+}
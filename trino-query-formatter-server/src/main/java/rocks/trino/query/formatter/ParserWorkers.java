@@ -0,0 +1,107 @@
+package rocks.trino.query.formatter;
+
+import com.google.common.base.Throwables;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A fixed number of worker threads that each own a {@link QueryFormatter} with its own parser and
+ * {@link ParserDfaCache}.
+ * <p>
+ * With a single shared parser, all threads update the same ANTLR DFA and contend on its monitors,
+ * which stops throughput from scaling on hosts with many cores. Here every lexer, parser and DFA is
+ * confined to one worker, at the cost of each worker warming up and holding its own DFA states.
+ */
+public final class ParserWorkers
+        implements Closeable
+{
+    private final int workers;
+    private final ExecutorService executor;
+    private final List<ParserDfaCache> caches = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<QueryFormatter> formatters;
+
+    /**
+     * @param formatCache shared by all workers, as formatted subtrees do not depend on the parser
+     */
+    public ParserWorkers(int workers, long maxStatesPerWorker, FormatCache formatCache, boolean verify)
+    {
+        checkArgument(workers > 0, "workers must be positive");
+        this.workers = workers;
+        this.executor = Executors.newFixedThreadPool(workers, new WorkerThreadFactory());
+        this.formatters = ThreadLocal.withInitial(() -> {
+            ParserDfaCache cache = new ParserDfaCache(maxStatesPerWorker);
+            caches.add(cache);
+            return new QueryFormatter(cache, formatCache, verify);
+        });
+    }
+
+    /**
+     * Runs the task on a worker with that worker's formatter and waits for its result.
+     */
+    public <T> T execute(Function<QueryFormatter, T> task)
+    {
+        try {
+            return executor.submit(() -> task.apply(formatters.get())).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public int getWorkers()
+    {
+        return workers;
+    }
+
+    /**
+     * DFA states held by all workers together.
+     */
+    public long getEstimatedStates()
+    {
+        return caches.stream()
+                .mapToLong(ParserDfaCache::getEstimatedStates)
+                .sum();
+    }
+
+    public long getClearCount()
+    {
+        return caches.stream()
+                .mapToLong(ParserDfaCache::getClearCount)
+                .sum();
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    private static class WorkerThreadFactory
+            implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "parser-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
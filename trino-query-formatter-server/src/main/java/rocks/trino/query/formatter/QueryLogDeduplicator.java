@@ -0,0 +1,219 @@
+package rocks.trino.query.formatter;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Groups the statements of a Trino query log export (one JSON event per line) by
+ * {@link QueryFingerprint} and reports the most frequent templates.
+ * <p>
+ * The file is memory-mapped in line-aligned chunks that are fingerprinted in parallel. Every chunk
+ * counts into its own {@link FingerprintCounts}, which is merged as soon as the chunk is done, in
+ * completion order, so workers never share mutable state.
+ */
+public final class QueryLogDeduplicator
+{
+    private static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final QueryFormatter formatter;
+    private final String[] queryField;
+    private final int threads;
+    private final long chunkSize;
+
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public QueryLogDeduplicator(QueryFormatter formatter, String queryField, int threads)
+    {
+        this(formatter, queryField, threads, DEFAULT_CHUNK_SIZE);
+    }
+
+    QueryLogDeduplicator(QueryFormatter formatter, String queryField, int threads, long chunkSize)
+    {
+        checkArgument(threads > 0, "threads must be positive");
+        checkArgument(chunkSize > 0 && chunkSize < Integer.MAX_VALUE, "invalid chunk size");
+        this.formatter = formatter;
+        this.queryField = queryField.split("\\.");
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Usage: {@code dedup <query-log.json> [--top N] [--threads N] [--query-field metadata.query]}
+     */
+    public static void main(String[] args)
+            throws IOException
+    {
+        Path path = null;
+        int top = 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String queryField = "metadata.query";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--top":
+                    top = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--query-field":
+                    queryField = args[++i];
+                    break;
+                default:
+                    path = Paths.get(args[i]);
+            }
+        }
+        checkArgument(path != null, "usage: dedup <query-log.json> [--top N] [--threads N] [--query-field metadata.query]");
+
+        long start = System.nanoTime();
+        QueryLogDeduplicator deduplicator = new QueryLogDeduplicator(new QueryFormatter(), queryField, threads);
+        FingerprintCounts counts = deduplicator.process(path);
+
+        for (FingerprintCounts.Template template : counts.top(top)) {
+            System.out.println(Main.GSON.toJson(template));
+        }
+        System.err.printf("%d events, %d failed, %d templates in %.1fs%n",
+                deduplicator.events.get(),
+                deduplicator.failures.get(),
+                counts.size(),
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    public FingerprintCounts process(Path path)
+            throws IOException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            CompletionService<FingerprintCounts> chunks = new ExecutorCompletionService<>(executor);
+            int submitted = 0;
+            long start = 0;
+            long size = channel.size();
+            while (start < size) {
+                long end = nextLineStart(channel, Math.min(start + chunkSize, size));
+                checkArgument(end - start <= Integer.MAX_VALUE, "line at offset %s is too long", start);
+
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                chunks.submit(() -> processChunk(chunk));
+                submitted++;
+                start = end;
+            }
+
+            FingerprintCounts counts = new FingerprintCounts();
+            for (int i = 0; i < submitted; i++) {
+                counts.merge(chunks.take().get());
+            }
+            return counts;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private FingerprintCounts processChunk(ByteBuffer chunk)
+    {
+        FingerprintCounts counts = new FingerprintCounts();
+        byte[] line = new byte[4096];
+
+        while (chunk.hasRemaining()) {
+            int length = 0;
+            while (chunk.hasRemaining()) {
+                byte next = chunk.get();
+                if (next == '\n') {
+                    break;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[length++] = next;
+            }
+            if (length > 0) {
+                processEvent(new String(line, 0, length, UTF_8), counts);
+            }
+        }
+        return counts;
+    }
+
+    private void processEvent(String event, FingerprintCounts counts)
+    {
+        events.incrementAndGet();
+
+        String sql = queryText(event);
+        if (sql == null) {
+            failures.incrementAndGet();
+            return;
+        }
+        try {
+            counts.add(formatter.fingerprint(sql), sql);
+        }
+        catch (RuntimeException | StackOverflowError e) {
+            // unparseable statements, statements the formatter does not support yet, and any other
+            // failure on a single event, which must not abort the whole run
+            failures.incrementAndGet();
+        }
+    }
+
+    private String queryText(String event)
+    {
+        try {
+            JsonElement element = JsonParser.parseString(event);
+            for (String field : queryField) {
+                if (!element.isJsonObject()) {
+                    return null;
+                }
+                element = element.getAsJsonObject().get(field);
+                if (element == null) {
+                    return null;
+                }
+            }
+            return element.isJsonPrimitive() ? element.getAsString() : null;
+        }
+        catch (JsonSyntaxException e) {
+            return null;
+        }
+    }
+
+    private static long nextLineStart(FileChannel channel, long position)
+            throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,162 @@
+package rocks.trino.query.formatter;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Serves the same requests as the HTTP endpoints over a Unix domain socket, for editor integrations
+ * on the same machine.
+ * <p>
+ * Every message in either direction is a frame: a 4-byte big-endian length followed by that many
+ * bytes of UTF-8 JSON. A request frame holds the body of the HTTP request with an additional
+ * {@code "method"} field naming the endpoint, such as {@code "parse"} (the default) or
+ * {@code "documents/change"}; the response frame holds the response body, or
+ * {@code {"error": "..."}}. Connections are persistent and clients may send further requests before
+ * reading responses. Requests on one connection are handled in order and responses come back in the
+ * same order.
+ */
+public final class UnixSocketServer
+        implements Closeable
+{
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private static final String DEFAULT_METHOD = "parse";
+
+    private final Path path;
+    private final Map<String, Function<String, Object>> handlers;
+    private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "socket-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ServerSocketChannel serverChannel;
+
+    public UnixSocketServer(Path path, Map<String, Function<String, Object>> handlers)
+    {
+        this.path = path;
+        this.handlers = Map.copyOf(handlers);
+    }
+
+    public void start()
+            throws IOException
+    {
+        // a socket file left behind by a previous run would make bind fail
+        Files.deleteIfExists(path);
+        serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        serverChannel.bind(UnixDomainSocketAddress.of(path));
+
+        Thread acceptor = new Thread(this::accept, "socket-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        connections.shutdownNow();
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        Files.deleteIfExists(path);
+    }
+
+    private void accept()
+    {
+        try {
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                connections.execute(() -> serve(channel));
+            }
+        }
+        catch (AsynchronousCloseException e) {
+            // closed
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void serve(SocketChannel channel)
+    {
+        try (channel;
+                DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                }
+                catch (EOFException e) {
+                    return;
+                }
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    // the stream cannot be resynchronized after a corrupt length
+                    return;
+                }
+                byte[] request = new byte[length];
+                input.readFully(request);
+
+                byte[] response = handle(new String(request, UTF_8)).getBytes(UTF_8);
+                output.writeInt(response.length);
+                output.write(response);
+                // while pipelined requests are already buffered, their responses go out in one write
+                if (input.available() == 0) {
+                    output.flush();
+                }
+            }
+        }
+        catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    private String handle(String frame)
+    {
+        try {
+            JsonElement element = JsonParser.parseString(frame);
+            if (!element.isJsonObject()) {
+                return error("Request must be a JSON object");
+            }
+            JsonObject object = element.getAsJsonObject();
+            String method = object.has("method") ? object.get("method").getAsString() : DEFAULT_METHOD;
+            Function<String, Object> handler = handlers.get(method);
+            if (handler == null) {
+                return error("Unknown method: " + method);
+            }
+            // handlers ignore the method field
+            return Main.GSON.toJson(handler.apply(frame));
+        }
+        catch (RuntimeException e) {
+            // unlike over HTTP, a failed request must not take the connection down with it
+            return error(String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static String error(String message)
+    {
+        return Main.GSON.toJson(Map.of("error", message));
+    }
+}
@@ -0,0 +1,130 @@
+package rocks.trino.query.formatter;
+
+import com.google.common.base.Splitter;
+import com.google.common.io.Resources;
+import com.intigua.antlr4.autosuggest.AutoSuggester;
+import io.trino.sql.parser.SqlBaseLexer;
+import io.trino.sql.parser.SqlBaseParser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Runs a bundled corpus of statements through the server before it reports ready, so that ATN
+ * deserialization, DFA population and JIT compilation of the formatter do not happen on the first
+ * user requests.
+ */
+public final class Warmup
+{
+    private static final String CORPUS = "warmup.sql";
+
+    // loading these classes deserializes the ATNs; AutoSuggester builds its own parsers through reflection
+    private static final List<Class<?>> PRELOADED_CLASSES = List.of(
+            SqlBaseLexer.class,
+            SqlBaseParser.class,
+            AutoSuggester.class);
+
+    private final Function<Main.Request, Main.Response> handler;
+    private final int iterations;
+    private final int threads;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * @param threads number of threads sending the corpus concurrently, so that every parser worker
+     * gets a share of it
+     */
+    public Warmup(Function<Main.Request, Main.Response> handler, int iterations, int threads)
+    {
+        checkArgument(iterations >= 0, "iterations must not be negative");
+        checkArgument(threads > 0, "threads must be positive");
+        this.handler = handler;
+        this.iterations = iterations;
+        this.threads = threads;
+    }
+
+    public boolean isDone()
+    {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Starts warming up in the background; {@link #isDone()} turns true once it finishes.
+     */
+    public void start()
+    {
+        Thread thread = new Thread(this::run, "warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void run()
+    {
+        try {
+            for (Class<?> clazz : PRELOADED_CLASSES) {
+                Class.forName(clazz.getName(), true, clazz.getClassLoader());
+            }
+
+            List<String> corpus = loadCorpus();
+            List<Thread> senders = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Thread sender = new Thread(() -> send(corpus), "warmup-" + i);
+                sender.start();
+                senders.add(sender);
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+        }
+        catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            // a failed warm-up only costs latency, it must not keep the server out of rotation
+            done.countDown();
+        }
+    }
+
+    private void send(List<String> corpus)
+    {
+        for (int i = 0; i < iterations; i++) {
+            for (String sql : corpus) {
+                try {
+                    handler.apply(new Main.Request(sql, true));
+                }
+                catch (RuntimeException ignored) {
+                    // statements the formatter does not support still warm up the parser
+                }
+            }
+        }
+    }
+
+    static List<String> loadCorpus()
+    {
+        String text;
+        try {
+            text = Resources.toString(Resources.getResource(Warmup.class, CORPUS), UTF_8);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        String withoutComments = Splitter.on('\n').splitToList(text).stream()
+                .filter(line -> !line.startsWith("--"))
+                .collect(Collectors.joining("\n"));
+        return Splitter.onPattern(";\\s*\n")
+                .trimResults()
+                .omitEmptyStrings()
+                .splitToList(withoutComments);
+    }
+}
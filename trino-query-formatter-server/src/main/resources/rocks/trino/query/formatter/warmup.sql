@@ -0,0 +1,40 @@
+-- Statements run through the server at startup, before it reports ready. They cover the common
+-- clauses, expressions and completion contexts, and include incomplete statements so that the
+-- error paths and autosuggest are warmed up too. Statements end with a semicolon at the end of a line.
+SELECT 1;
+SELECT * FROM events;
+SELECT id, type, event_time FROM events WHERE type = 'click' AND event_time > TIMESTAMP '2021-01-01 00:00:00';
+SELECT e.id, count(*) AS clicks
+FROM events e
+JOIN profiles p ON e.profile_id = p.id
+LEFT JOIN orders o ON o.profile_id = p.id
+WHERE e.type IN ('click', 'view') AND p.country IS NOT NULL
+GROUP BY e.id
+HAVING count(*) > 10
+ORDER BY clicks DESC
+LIMIT 100;
+WITH recent AS (SELECT id, total FROM orders WHERE created_at > current_date - INTERVAL '7' DAY),
+     big AS (SELECT id FROM recent WHERE total > 100)
+SELECT r.id, r.total, CASE WHEN b.id IS NULL THEN 'small' ELSE 'big' END AS size
+FROM recent r LEFT JOIN big b ON r.id = b.id;
+SELECT profile_id, total, rank() OVER (PARTITION BY profile_id ORDER BY total DESC) AS position
+FROM orders;
+SELECT *
+FROM carts
+WHERE id NOT IN (SELECT cart_id FROM orders)
+  AND EXISTS (SELECT 1 FROM profiles WHERE profiles.id = carts.profile_id);
+SELECT CAST(total AS varchar), coalesce(discount, 0) * 2, round(total / 3.0, 2), lower(status) LIKE 'ret%'
+FROM returns
+WHERE total BETWEEN 10 AND 20
+UNION ALL
+SELECT CAST(total AS varchar), 0, total, false
+FROM orders;
+SELECT type, array_agg(id), map_agg(id, event_time) FROM events GROUP BY type;
+SELECT x FROM (VALUES 1, 2, 3) t (x) CROSS JOIN UNNEST(ARRAY[1, 2]) u (y);
+SELECT * FROM e;
+SELECT * FROM events WHERE events.t;
+SELECT * FROM events ev CROSS JOIN e;
+SELECT id FROM;
+SELECT * FROM events WHERE;
+SELECT count(*) FROM orders GROUP;
+SELECT
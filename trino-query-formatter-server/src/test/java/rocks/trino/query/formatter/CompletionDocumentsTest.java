@@ -0,0 +1,40 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class CompletionDocumentsTest
+{
+    private final ParserDfaCache dfaCache = new ParserDfaCache(QueryFormatter.DEFAULT_MAX_DFA_STATES);
+
+    @Test
+    public void testReuseStatementAroundCursor()
+    {
+        CompletionDocuments documents = new CompletionDocuments();
+        String uri = "file:///completion.sql";
+        String text = "SELECT 1;\nSELECT ev.t FROM events ev;\nSELECT * FROM carts";
+        CompletionContext previous = documents.at(dfaCache, uri, text, text.indexOf(" FROM events"), () -> {}, false);
+        Assert.assertEquals(List.of("ev"), previous.getVisibleAliases());
+
+        // a word typed in the statement around the cursor, and an edit of another statement
+        String typed = "SELECT 12;\nSELECT ev.ty FROM events ev;\nSELECT * FROM carts";
+        CompletionContext context = documents.at(dfaCache, uri, typed, typed.indexOf(" FROM events"), () -> {}, false);
+
+        Assert.assertEquals("ty", context.getPrefix());
+        Assert.assertEquals("ev", context.getQualifier());
+        Assert.assertSame(previous.getRelations(), context.getRelations());
+    }
+
+    @Test
+    public void testCursorAtEndOfDocument()
+    {
+        CompletionDocuments documents = new CompletionDocuments();
+        String text = "SELECT 1;\nSELECT * FROM carts c WHERE ";
+        CompletionContext context = documents.at(dfaCache, "file:///end.sql", text, text.length(), () -> {}, false);
+
+        Assert.assertEquals(CompletionContext.Clause.WHERE, context.getClause());
+        Assert.assertEquals(List.of("c"), context.getVisibleAliases());
+    }
+}
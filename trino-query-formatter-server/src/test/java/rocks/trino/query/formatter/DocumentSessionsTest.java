@@ -0,0 +1,75 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class DocumentSessionsTest
+{
+    @Test
+    public void testChangeReturnsEditedStatements()
+    {
+        DocumentSessions sessions = new DocumentSessions(sql -> Main.parse(new Main.Request(sql, false)));
+
+        DocumentSessions.DocumentRequest open = new DocumentSessions.DocumentRequest();
+        open.uri = "file:///changes.sql";
+        open.text = "select a from b;\nselect c from d;\nselect e from f;\n";
+        Assert.assertEquals(3, sessions.open(open).statements.size());
+
+        DocumentSessions.DocumentRequest change = new DocumentSessions.DocumentRequest();
+        change.uri = open.uri;
+        change.changes = List.of(new DocumentSessions.Change(
+                new Document.Range(new Document.Position(1, 7), new Document.Position(1, 8)), "x"));
+        DocumentSessions.DocumentResponse response = sessions.change(change);
+
+        Assert.assertEquals(3, response.statementCount);
+        Assert.assertEquals(1, response.statements.size());
+        Assert.assertEquals(1, response.statements.get(0).index);
+        Assert.assertEquals("SELECT x\nFROM\n  d\n", response.statements.get(0).formattedSql);
+        Assert.assertEquals(1, response.parsedStatements);
+    }
+
+    @Test
+    public void testFailedStatementIsCounted()
+    {
+        DocumentSessions sessions = new DocumentSessions(sql -> {
+            if (sql.contains("b")) {
+                throw new IllegalStateException("formatter bug");
+            }
+            return Main.parse(new Main.Request(sql, false));
+        });
+
+        DocumentSessions.DocumentRequest open = new DocumentSessions.DocumentRequest();
+        open.uri = "file:///failed.sql";
+        open.text = "select a from b;\nselect c from d;\n";
+        DocumentSessions.DocumentResponse response = sessions.open(open);
+
+        Assert.assertEquals(2, response.statements.size());
+        Assert.assertNull(response.statements.get(0).formattedSql);
+        Assert.assertEquals("SELECT c\nFROM\n  d\n", response.statements.get(1).formattedSql);
+        Assert.assertEquals(1, sessions.getFailedStatementCount());
+    }
+
+    @Test
+    public void testFormatRange()
+    {
+        DocumentSessions sessions = new DocumentSessions(sql -> Main.parse(new Main.Request(sql, false)));
+        String text = "select a from b;\n-- second\nselect   c from d;\nselect e from f\n";
+
+        DocumentSessions.DocumentRequest request = new DocumentSessions.DocumentRequest();
+        request.text = text;
+        request.range = new Document.Range(new Document.Position(2, 3), new Document.Position(2, 3));
+        DocumentSessions.FormatRangeResponse response = sessions.formatRange(request);
+
+        Assert.assertEquals(1, response.statements);
+        Assert.assertEquals(1, response.parsedStatements);
+
+        Document document = new Document(text);
+        for (int i = response.edits.size() - 1; i >= 0; i--) {
+            TextEdits.TextEdit edit = response.edits.get(i);
+            document.replace(document.offset(edit.range.start), document.offset(edit.range.end), edit.newText);
+        }
+        Assert.assertEquals("select a from b;\n-- second\nSELECT c\nFROM\n  d;\nselect e from f\n", document.getText());
+    }
+}
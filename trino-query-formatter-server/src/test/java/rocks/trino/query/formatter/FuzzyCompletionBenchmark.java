@@ -0,0 +1,58 @@
+package rocks.trino.query.formatter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Time per {@link FuzzyIndex#search} over a catalog of generated table names, for exact prefixes,
+ * fragments of words and misspellings.
+ * <p>
+ * Usage: {@code FuzzyCompletionBenchmark [names] [iterations]}
+ */
+public final class FuzzyCompletionBenchmark
+{
+    private static final String[] WORDS = {
+            "fact", "dim", "stg", "raw", "order", "customer", "event", "session", "payment", "product",
+            "line", "item", "daily", "hourly", "snapshot", "history", "account", "invoice", "shipment", "return"};
+    private static final String[] QUERIES = {"cust", "customer_ord", "ordli", "evses", "custmer", "shipmnet", "histroy_snap"};
+
+    private FuzzyCompletionBenchmark()
+    {
+    }
+
+    public static void main(String[] args)
+    {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        Random random = new Random(42);
+        List<String> names = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder name = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            for (int words = 1 + random.nextInt(2); words > 0; words--) {
+                name.append('_').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            names.add(name.append('_').append(i).toString());
+        }
+
+        long start = System.nanoTime();
+        FuzzyIndex index = new FuzzyIndex(names);
+        System.out.printf("indexed %d names in %.0f ms%n", index.size(), (System.nanoTime() - start) / 1e6);
+
+        System.out.printf("%16s %12s %8s  %s%n", "query", "search (us)", "matches", "best");
+        for (String query : QUERIES) {
+            // untimed runs warm up the JIT
+            for (int i = 0; i < iterations; i++) {
+                index.search(query, 20);
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                index.search(query, 20);
+            }
+            double micros = (System.nanoTime() - start) / 1e3 / iterations;
+            List<String> matches = index.search(query, 20);
+            System.out.printf("%16s %12.1f %8d  %s%n", query, micros, matches.size(), matches.isEmpty() ? "" : matches.get(0));
+        }
+    }
+}
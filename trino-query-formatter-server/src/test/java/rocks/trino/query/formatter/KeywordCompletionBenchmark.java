@@ -0,0 +1,62 @@
+package rocks.trino.query.formatter;
+
+import java.util.function.Function;
+
+/**
+ * Time per keyword completion at the end of queries of growing length, with {@code AutoSuggester}
+ * walking the grammar and with the {@link FollowSets} lookup of {@link Suggestions#autoComplete(CompletionContext)}.
+ * <p>
+ * Usage: {@code KeywordCompletionBenchmark [max-select-items] [iterations]}
+ */
+public final class KeywordCompletionBenchmark
+{
+    private KeywordCompletionBenchmark()
+    {
+    }
+
+    public static void main(String[] args)
+    {
+        int maxItems = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        ParserDfaCache dfaCache = new ParserDfaCache(Long.MAX_VALUE);
+        FollowSets.get();
+
+        System.out.printf("%8s %10s %20s %20s%n", "items", "chars", "autosuggest (ms)", "follow sets (ms)");
+        for (int items = 1; items <= maxItems; items *= 4) {
+            String sql = query(items);
+            double autoSuggester = time(sql, iterations, Suggestions::autoComplete);
+            double followSets = time(sql, iterations, text -> Suggestions.autoComplete(CompletionContext.at(dfaCache, text, text.length())));
+            System.out.printf("%8d %10d %20.3f %20.3f%n", items, sql.length(), autoSuggester, followSets);
+        }
+    }
+
+    /**
+     * A query with {@code items} select items and as many joins, ending where a condition starts.
+     */
+    private static String query(int items)
+    {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < items; i++) {
+            sql.append(i == 0 ? "" : ", ").append("coalesce(t").append(i).append(".value, 0) + ").append(i).append(" AS v").append(i);
+        }
+        sql.append(" FROM events t0");
+        for (int i = 1; i < items; i++) {
+            sql.append(" JOIN events t").append(i).append(" ON t").append(i).append(".id = t0.id");
+        }
+        return sql.append(" WHERE t0.type = 'click' AND ").toString();
+    }
+
+    private static double time(String sql, int iterations, Function<String, ?> complete)
+    {
+        // untimed runs warm up the JIT and the DFA
+        for (int i = 0; i < iterations; i++) {
+            complete.apply(sql);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            complete.apply(sql);
+        }
+        return (System.nanoTime() - start) / 1e6 / iterations;
+    }
+}
@@ -0,0 +1,149 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class MainTest
+{
+    @Test
+    public void test()
+    {
+        Main.Response response = Main.parse(
+                new Main.Request("select * from e", false));
+
+        Assert.assertEquals(1, response.suggestions.size());
+        Assert.assertTrue(response.suggestions.contains("events"));
+    }
+
+    @Test
+    public void test2()
+    {
+        Main.Response response = Main.parse(
+                new Main.Request("select * from events where events.t", false));
+
+        Assert.assertTrue(response.suggestions.contains("type"));
+    }
+
+    @Test
+    public void testSkipSuggestions()
+    {
+        Main.Request request = new Main.Request("select * from e", true);
+        request.skipSuggestions = true;
+        Main.Response response = Main.parse(request);
+
+        Assert.assertEquals("SELECT *\nFROM\n  e\n", response.formattedSql);
+        Assert.assertTrue(response.suggestions.isEmpty());
+        Assert.assertNull(response.autoSuggestions);
+    }
+
+    @Test
+    public void testAliasSuggestions()
+    {
+        Main.Response response = Main.parse(
+                new Main.Request("select * from events ev cross join e", false));
+
+        Assert.assertTrue(response.suggestions.contains("events"));
+        Assert.assertTrue(response.suggestions.contains("ev"));
+    }
+
+    @Test
+    public void testFuzzySuggestions()
+    {
+        Assert.assertEquals(List.of("events"), Main.parse(new Main.Request("select * from evnts", false)).suggestions);
+
+        Main.Response response = Main.parse(new Main.Request("select * from events where events.evti", false));
+        Assert.assertEquals(List.of("event_time"), response.suggestions);
+    }
+
+    @Test
+    public void testQualifiedColumns()
+    {
+        Main.Request request = new Main.Request("select ev. from events ev join (select id as order_id from orders) o on true", false);
+        request.cursor = "select ev.".length();
+        Assert.assertTrue(Main.parse(request).suggestions.contains("type"));
+
+        request.sql = "select ev. from events ev join (select id as order_id from orders) o on o.";
+        request.cursor = null;
+        Assert.assertEquals(List.of("order_id"), Main.parse(request).suggestions);
+    }
+
+    @Test
+    public void testParseError()
+    {
+        Main.Response response = Main.parse(
+                new Main.Request("select * from", false));
+
+        Assert.assertEquals("<EOF>", response.parseError.offendingToken);
+        Assert.assertTrue(response.parseError.expected.contains("<identifier>"));
+        Assert.assertFalse(response.parseError.expected.contains("ADMIN"));
+        Assert.assertEquals("singleStatement", response.parseError.ruleStack.get(response.parseError.ruleStack.size() - 1));
+        Assert.assertTrue(response.suggestions.contains("events"));
+        Assert.assertTrue(response.suggestions.contains("UNNEST"));
+    }
+
+    @Test
+    public void testAnalyze()
+    {
+        Main.Request request = new Main.Request("" +
+                "WITH recent AS (SELECT id FROM orders) " +
+                "SELECT o.id, c.total FROM recent o JOIN hive.sales.carts c ON o.id = c.order_id", false);
+        request.catalog = "hive";
+        request.schema = "web";
+
+        RelationAnalysis.Result analysis = Main.analyze(request).analysis;
+
+        List<String> tables = analysis.tables.stream().map(table -> table.name).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("hive.web.orders", "hive.sales.carts"), tables);
+        Assert.assertEquals("recent", analysis.ctes.get(0).name);
+        Assert.assertTrue(analysis.columns.stream()
+                .anyMatch(column -> column.column.equals("total") && "hive.sales.carts".equals(column.table)));
+        Assert.assertEquals(1, analysis.ctes.get(0).location.line);
+    }
+
+    @Test
+    public void testDiagnosticsWithWorkerParser()
+    {
+        QueryFormatter formatter = new QueryFormatter(new ParserDfaCache(QueryFormatter.DEFAULT_MAX_DFA_STATES), new FormatCache(10), false);
+        Main.Response response = Main.diagnostics(new Main.Request("select * from events where", false), formatter);
+
+        Assert.assertEquals(1, response.diagnostics.size());
+        Assert.assertTrue(formatter.getParserDfaCache().getEstimatedStates() > 0);
+    }
+
+    @Test
+    public void testSupersededRequest()
+    {
+        long cancelled = (long) Main.metrics().get("cancelled_requests");
+        Main.Request newer = new Main.Request("select * from events", true);
+        newer.uri = "file:///superseded.sql";
+        newer.version = 2;
+        Assert.assertNull(Main.execute(newer, Main::parse).cancelled);
+
+        Main.Request older = new Main.Request("select * from even", true);
+        older.uri = "file:///superseded.sql";
+        older.version = 1;
+        Main.Response response = Main.execute(older, Main::parse);
+
+        Assert.assertEquals(Boolean.TRUE, response.cancelled);
+        Assert.assertNull(response.autoSuggestions);
+        Assert.assertEquals(cancelled + 1, Main.metrics().get("cancelled_requests"));
+    }
+
+    @Test
+    public void testTimeout()
+    {
+        Main.Request request = new Main.Request("select * from events", true);
+        request.timeoutMillis = 0L;
+        Main.Response response = Main.execute(request, Main::parse);
+
+        Assert.assertNull(response.formattedSql);
+        Assert.assertEquals("lexing", response.timeout.phase);
+        Assert.assertEquals(0, response.timeout.timeoutMillis);
+        Assert.assertTrue((Long) Main.metrics().get("timed_out_requests") >= 1);
+        Assert.assertTrue(Main.recentTimeouts().contains("select * from events"));
+    }
+}
@@ -0,0 +1,55 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Runs the native executable built by the {@code native} profile and checks that its output is
+ * identical to {@link FormatCommand} on the JVM.
+ */
+public class NativeFormatIT
+{
+    private static final String EXECUTABLE = System.getProperty("native.executable");
+
+    @Test
+    public void testSameOutputAsJvm()
+            throws Exception
+    {
+        Assume.assumeTrue("native executable not built", EXECUTABLE != null && new File(EXECUTABLE).canExecute());
+
+        for (String sql : Warmup.loadCorpus()) {
+            assertSameOutput(sql, false);
+        }
+        assertSameOutput("{\"sql\": \"select * from events e where e.t\", \"include_auto_suggestions\": true, \"include_analysis\": true}", true);
+    }
+
+    private static void assertSameOutput(String input, boolean json)
+            throws IOException, InterruptedException
+    {
+        ByteArrayOutputStream expectedOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream expectedErr = new ByteArrayOutputStream();
+        int expectedExitCode = FormatCommand.run(input, json, new PrintStream(expectedOut, true, UTF_8), new PrintStream(expectedErr, true, UTF_8));
+
+        Process process = new ProcessBuilder(json ? new String[] {EXECUTABLE, "--json"} : new String[] {EXECUTABLE}).start();
+        try (OutputStream stdin = process.getOutputStream()) {
+            stdin.write(input.getBytes(UTF_8));
+        }
+        String actualOut = new String(process.getInputStream().readAllBytes(), UTF_8);
+        String actualErr = new String(process.getErrorStream().readAllBytes(), UTF_8);
+        Assert.assertTrue(process.waitFor(30, TimeUnit.SECONDS));
+
+        Assert.assertEquals(input, expectedOut.toString(UTF_8), actualOut);
+        Assert.assertEquals(input, expectedErr.toString(UTF_8), actualErr);
+        Assert.assertEquals(input, expectedExitCode, process.exitValue());
+    }
+}
@@ -0,0 +1,87 @@
+package rocks.trino.query.formatter;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Throughput of {@link Main#parse(Main.Request, QueryFormatter)} from one thread up to the number of cores,
+ * with all threads sharing one formatter and with {@link ParserWorkers}.
+ * <p>
+ * Usage: {@code ParserScalingBenchmark [max-threads] [seconds-per-run]}
+ */
+public final class ParserScalingBenchmark
+{
+    private ParserScalingBenchmark()
+    {
+    }
+
+    public static void main(String[] args)
+            throws InterruptedException
+    {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<String> corpus = Warmup.loadCorpus();
+
+        System.out.printf("%8s %16s %16s%n", "threads", "shared (ops/s)", "isolated (ops/s)");
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            QueryFormatter sharedFormatter = new QueryFormatter(new ParserDfaCache(Long.MAX_VALUE), new FormatCache(1_000), false);
+            double shared = run(corpus, threads, seconds, request -> Main.parse(request, sharedFormatter));
+
+            double isolated;
+            try (ParserWorkers workers = new ParserWorkers(threads, Long.MAX_VALUE, new FormatCache(1_000), false)) {
+                isolated = run(corpus, threads, seconds, request -> workers.execute(formatter -> Main.parse(request, formatter)));
+            }
+            System.out.printf("%8d %16.0f %16.0f%n", threads, shared, isolated);
+        }
+    }
+
+    private static int nextThreadCount(int threads, int maxThreads)
+    {
+        return threads == maxThreads ? maxThreads + 1 : Math.min(threads * 2, maxThreads);
+    }
+
+    private static double run(List<String> corpus, int threads, int seconds, Function<Main.Request, Main.Response> parse)
+            throws InterruptedException
+    {
+        // one untimed pass warms up the JIT and the DFA
+        for (String sql : corpus) {
+            parse.apply(new Main.Request(sql, false));
+        }
+
+        AtomicBoolean timed = new AtomicBoolean();
+        AtomicBoolean stopped = new AtomicBoolean();
+        LongAdder operations = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int thread = 0; thread < threads; thread++) {
+            int offset = thread * corpus.size() / threads;
+            Thread worker = new Thread(() -> {
+                for (int i = offset; !stopped.get(); i++) {
+                    parse.apply(new Main.Request(corpus.get(i % corpus.size()), false));
+                    if (timed.get()) {
+                        operations.increment();
+                    }
+                }
+                done.countDown();
+            });
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        TimeUnit.SECONDS.sleep(1);
+        timed.set(true);
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(seconds);
+        long count = operations.sum();
+        long elapsed = System.nanoTime() - start;
+        stopped.set(true);
+        done.await();
+
+        return count / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,47 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class QueryLogDeduplicatorTest
+{
+    @Test
+    public void testTopTemplates()
+            throws IOException
+    {
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            events.add("{\"metadata\": {\"query\": \"SELECT * FROM events WHERE id = " + i + "\"}}");
+        }
+        for (int i = 0; i < 20; i++) {
+            events.add("{\"metadata\": {\"query\": \"select count(*) from ORDERS where total > " + i + ";\"}}");
+        }
+        events.add("{\"metadata\": {\"query\": \"SELECT FROM\"}}");
+        events.add("not json");
+
+        Path log = Files.createTempFile("query-log", ".json");
+        try {
+            Files.write(log, events, UTF_8);
+
+            // small chunks so that lines straddle chunk boundaries
+            QueryLogDeduplicator deduplicator = new QueryLogDeduplicator(new QueryFormatter(), "metadata.query", 4, 100);
+            List<FingerprintCounts.Template> top = deduplicator.process(log).top(10);
+
+            Assert.assertEquals(2, top.size());
+            Assert.assertEquals(50, top.get(0).count);
+            Assert.assertEquals(20, top.get(1).count);
+            Assert.assertTrue(top.get(1).template.contains("orders"));
+        }
+        finally {
+            Files.delete(log);
+        }
+    }
+}
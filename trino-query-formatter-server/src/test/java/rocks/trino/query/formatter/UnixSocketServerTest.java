@@ -0,0 +1,72 @@
+package rocks.trino.query.formatter;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class UnixSocketServerTest
+{
+    @Test
+    public void testPipelinedRequests()
+            throws Exception
+    {
+        Path directory = Files.createTempDirectory("formatter");
+        Path socket = directory.resolve("formatter.sock");
+
+        try (UnixSocketServer server = new UnixSocketServer(socket, Map.of(
+                "parse", body -> Main.parse(Main.GSON.fromJson(body, Main.Request.class)),
+                "fingerprint", body -> Main.fingerprint(Main.GSON.fromJson(body, Main.Request.class))))) {
+            server.start();
+
+            try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+                channel.connect(UnixDomainSocketAddress.of(socket));
+                DataOutputStream output = new DataOutputStream(Channels.newOutputStream(channel));
+                DataInputStream input = new DataInputStream(Channels.newInputStream(channel));
+
+                // all requests are written before any response is read
+                writeFrame(output, "{\"sql\": \"select 1\"}");
+                writeFrame(output, "{\"method\": \"fingerprint\", \"sql\": \"select 2\"}");
+                writeFrame(output, "{\"method\": \"unknown\"}");
+                writeFrame(output, "{\"sql\": \"select * from e\"}");
+
+                Assert.assertEquals("SELECT 1\n", readFrame(input).get("formatted_sql").getAsString());
+                Assert.assertEquals("SELECT ?", readFrame(input).getAsJsonObject("fingerprint").get("canonical_sql").getAsString().trim());
+                Assert.assertEquals("Unknown method: unknown", readFrame(input).get("error").getAsString());
+                Assert.assertEquals("events", readFrame(input).getAsJsonArray("suggestions").get(0).getAsString());
+            }
+        }
+        finally {
+            Files.deleteIfExists(socket);
+            Files.delete(directory);
+        }
+    }
+
+    private static void writeFrame(DataOutputStream output, String json)
+            throws Exception
+    {
+        byte[] bytes = json.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static JsonObject readFrame(DataInputStream input)
+            throws Exception
+    {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return JsonParser.parseString(new String(bytes, UTF_8)).getAsJsonObject();
+    }
+}
@@ -0,0 +1,30 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WarmupTest
+{
+    @Test
+    public void testRunsCorpus()
+    {
+        List<String> corpus = Warmup.loadCorpus();
+        Assert.assertTrue(corpus.size() > 10);
+        Assert.assertTrue(corpus.stream().noneMatch(sql -> sql.startsWith("--") || sql.endsWith(";")));
+
+        AtomicInteger requests = new AtomicInteger();
+        Warmup warmup = new Warmup(request -> {
+            requests.incrementAndGet();
+            return Main.parse(request);
+        }, 2, 2);
+        Assert.assertFalse(warmup.isDone());
+
+        warmup.run();
+
+        Assert.assertTrue(warmup.isDone());
+        Assert.assertEquals(2 * 2 * corpus.size(), requests.get());
+    }
+}
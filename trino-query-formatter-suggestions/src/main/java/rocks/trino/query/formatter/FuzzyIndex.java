@@ -0,0 +1,481 @@
+package rocks.trino.query.formatter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Typo-tolerant matching of the word being typed against names, such as the tables of a catalog.
+ * A name matches a word when
+ * <ul>
+ * <li>the word is a subsequence of the name, with its first two characters at the start of a word
+ * of the name: {@code evti} matches {@code event_time} and {@code eventTime}, or when
+ * <li>a word of the name starts with a text one edit away from the word, for words of three to five
+ * characters, or two edits away for longer ones, with the same first character.
+ * </ul>
+ * Matches are ranked by a score in the manner of fzf: characters matched at the start of the name
+ * or of its words, and right after each other, count more and skipped characters count less.
+ * Misspelled matches come last.
+ * <p>
+ * The index keeps every suffix of a name that starts a word, lowercased and sorted, and apart from
+ * them the names themselves. The names starting with a text are then a range found by binary
+ * search. The ranges form a trie, which a Levenshtein automaton walks to find misspelled matches
+ * without looking at the other names. Names that start with a match are looked up first, as they
+ * rank first and would otherwise be cut off by the words in the middle of other names that sort
+ * before them. Thread-safe.
+ */
+public final class FuzzyIndex
+{
+    public static final int NO_MATCH = Integer.MIN_VALUE;
+
+    private static final int MATCH_SCORE = 16;
+    private static final int START_BONUS = 16;
+    private static final int WORD_START_BONUS = 8;
+    private static final int CONSECUTIVE_BONUS = 4;
+    private static final int GAP_START_PENALTY = 3;
+    private static final int GAP_EXTENSION_PENALTY = 1;
+
+    // bound the work per search on large catalogs; candidates beyond them are not ranked
+    private static final int CANDIDATES_PER_RESULT = 4;
+    private static final int MAX_CANDIDATES = 1024;
+    private static final int MAX_SCANNED = 4096;
+
+    private final String[] names;
+    private final String[] keys;
+    // the names, and the suffixes that start a word of a name
+    private final Suffixes starts;
+    private final Suffixes words;
+    // the characters the name of each of the words contains, see mask(), to skip names without a subsequence
+    private final long[] wordMasks;
+
+    public FuzzyIndex(Collection<String> names)
+    {
+        this.names = names.toArray(new String[0]);
+        this.keys = new String[this.names.length];
+        List<int[]> nameStarts = new ArrayList<>(this.names.length);
+        List<int[]> wordStarts = new ArrayList<>();
+        for (int name = 0; name < this.names.length; name++) {
+            keys[name] = lowerCase(this.names[name]);
+            nameStarts.add(new int[] {name, 0});
+            for (int offset = 0; offset < this.names[name].length(); offset++) {
+                if (isWordStart(this.names[name], offset)) {
+                    wordStarts.add(new int[] {name, offset});
+                }
+            }
+        }
+        this.starts = new Suffixes(nameStarts);
+        this.words = new Suffixes(wordStarts);
+        this.wordMasks = new long[words.suffixNames.length];
+        for (int i = 0; i < wordMasks.length; i++) {
+            wordMasks[i] = mask(keys[words.suffixNames[i]]);
+        }
+    }
+
+    public int size()
+    {
+        return names.length;
+    }
+
+    /**
+     * The best matches of {@code word}, best first, or the first names of the index when it is
+     * empty.
+     */
+    public List<String> search(String word, int limit)
+    {
+        if (word.isEmpty()) {
+            return new ArrayList<>(Arrays.asList(names).subList(0, Math.min(limit, names.length)));
+        }
+        String key = lowerCase(word);
+        int maxCandidates = (int) Math.min((long) limit * CANDIDATES_PER_RESULT, MAX_CANDIDATES);
+        Set<Integer> candidates = new LinkedHashSet<>();
+
+        // names, then other words of names, that start with the word
+        int[] range = starts.range(key, key.length());
+        for (int suffix = range[0]; suffix < range[1] && candidates.size() < maxCandidates; suffix++) {
+            candidates.add(starts.suffixNames[suffix]);
+        }
+        range = words.range(key, key.length());
+        for (int suffix = range[0]; suffix < range[1] && candidates.size() < maxCandidates; suffix++) {
+            candidates.add(words.suffixNames[suffix]);
+        }
+        // subsequences: a name has one when a word of it starts with the first two characters and
+        // another, or the same, with the last ones, so the smallest of those ranges is scanned
+        if (key.length() > 2 && range[0] == range[1]) {
+            List<int[]> ranges = new ArrayList<>();
+            for (int split = 2; split < key.length(); split++) {
+                ranges.add(words.range(key, split));
+                ranges.add(words.range(key.substring(split), key.length() - split));
+            }
+            ranges.removeIf(candidate -> candidate[0] == candidate[1]);
+            ranges.sort(Comparator.comparingInt(candidate -> candidate[1] - candidate[0]));
+            long mask = mask(key);
+            int scanned = 0;
+            for (int[] candidate : ranges) {
+                for (int suffix = candidate[0]; suffix < candidate[1] && scanned < MAX_SCANNED && candidates.size() < maxCandidates; suffix++, scanned++) {
+                    int name = words.suffixNames[suffix];
+                    if ((wordMasks[suffix] & mask) == mask && isSubsequence(key, keys[name]) && !candidates.contains(name) && subsequenceScore(key, keys[name], names[name]) != NO_MATCH) {
+                        candidates.add(name);
+                    }
+                }
+            }
+        }
+        // misspellings after the first character, only when there are not enough better matches
+        int maxEdits = maxEdits(key.length());
+        if (maxEdits > 0 && candidates.size() < limit) {
+            int[] row = new int[key.length() + 1];
+            for (int j = 0; j < row.length; j++) {
+                row[j] = j;
+            }
+            int[] firstRow = nextRow(row, key, key.charAt(0));
+            for (Suffixes suffixes : List.of(starts, words)) {
+                range = suffixes.range(key, 1);
+                suffixes.walk(range[0], range[1], 1, firstRow, key, maxEdits, candidates, maxCandidates);
+            }
+        }
+
+        List<Match> matches = new ArrayList<>(candidates.size());
+        for (int name : candidates) {
+            int score = score(key, keys[name], names[name]);
+            if (score != NO_MATCH) {
+                matches.add(new Match(names[name], score));
+            }
+        }
+        return ranked(matches, limit);
+    }
+
+    /**
+     * The names that match {@code word}, best first, or all of them in their order when it is empty.
+     * For the few names in scope of a statement, where an index does not pay off.
+     */
+    public static List<String> rank(Collection<String> names, String word)
+    {
+        if (word.isEmpty()) {
+            return new ArrayList<>(names);
+        }
+        List<Match> matches = new ArrayList<>();
+        for (String name : names) {
+            int score = score(word, name);
+            if (score != NO_MATCH) {
+                matches.add(new Match(name, score));
+            }
+        }
+        return ranked(matches, Integer.MAX_VALUE);
+    }
+
+    /**
+     * How well {@code name} matches {@code word}, higher is better, or {@link #NO_MATCH}. Negative
+     * scores are misspelled matches, minus the number of edits.
+     */
+    public static int score(String word, String name)
+    {
+        if (word.isEmpty()) {
+            return 0;
+        }
+        return score(lowerCase(word), lowerCase(name), name);
+    }
+
+    private static int score(String key, String lowerCaseName, String name)
+    {
+        int best = subsequenceScore(key, lowerCaseName, name);
+        int maxEdits = maxEdits(key.length());
+        if (best != NO_MATCH || maxEdits == 0) {
+            return best;
+        }
+        for (int offset = 0; offset < name.length(); offset++) {
+            if (isWordStart(name, offset) && lowerCaseName.charAt(offset) == key.charAt(0)) {
+                int edits = prefixEdits(key, lowerCaseName, offset, maxEdits);
+                if (edits <= maxEdits) {
+                    best = Math.max(best, -edits);
+                }
+            }
+        }
+        return best;
+    }
+
+    private static final class Match
+    {
+        private final String name;
+        private final int score;
+
+        Match(String name, int score)
+        {
+            this.name = name;
+            this.score = score;
+        }
+    }
+
+    private static List<String> ranked(List<Match> matches, int limit)
+    {
+        // shorter names first among equal scores, as there is less left to type; the sort is stable
+        matches.sort(Comparator.<Match>comparingInt(match -> -match.score).thenComparingInt(match -> match.name.length()));
+        List<String> ranked = new ArrayList<>(Math.min(limit, matches.size()));
+        for (Match match : matches.subList(0, Math.min(limit, matches.size()))) {
+            ranked.add(match.name);
+        }
+        return ranked;
+    }
+
+    private static int subsequenceScore(String key, String lowerCaseName, String name)
+    {
+        int best = NO_MATCH;
+        for (int offset = 0; offset < name.length(); offset++) {
+            if (isWordStart(name, offset)) {
+                best = Math.max(best, subsequenceScore(key, lowerCaseName, name, offset));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The greedy match of {@code key} as a subsequence of the name from {@code offset}, where its
+     * first two characters must be, or {@link #NO_MATCH}.
+     */
+    private static int subsequenceScore(String key, String lowerCaseName, String name, int offset)
+    {
+        int anchor = Math.min(2, key.length());
+        if (!lowerCaseName.regionMatches(offset, key, 0, anchor)) {
+            return NO_MATCH;
+        }
+        int score = offset == 0 ? START_BONUS : 0;
+        int previous = -1;
+        int position = offset;
+        for (int j = 0; j < key.length(); j++) {
+            if (j >= anchor) {
+                position = lowerCaseName.indexOf(key.charAt(j), position);
+                if (position < 0) {
+                    return NO_MATCH;
+                }
+            }
+            score += MATCH_SCORE;
+            if (isWordStart(name, position)) {
+                score += WORD_START_BONUS;
+            }
+            if (previous >= 0) {
+                // a gap costs less than the character matched after it, so that every match scores above misspellings
+                score += position == previous + 1 ? CONSECUTIVE_BONUS : -Math.min(GAP_START_PENALTY + GAP_EXTENSION_PENALTY * (position - previous - 2), MATCH_SCORE - 1);
+            }
+            previous = position;
+            position++;
+        }
+        return score;
+    }
+
+    private static boolean isSubsequence(String key, String lowerCaseName)
+    {
+        int position = 0;
+        for (int j = 0; j < key.length(); j++) {
+            position = lowerCaseName.indexOf(key.charAt(j), position) + 1;
+            if (position == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The fewest edits that turn {@code key} into a prefix of the name from {@code offset}, or
+     * more than {@code maxEdits}.
+     */
+    private static int prefixEdits(String key, String lowerCaseName, int offset, int maxEdits)
+    {
+        int[] row = new int[key.length() + 1];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = j;
+        }
+        int best = row[key.length()];
+        for (int i = offset; i < lowerCaseName.length() && best > 0; i++) {
+            row = nextRow(row, key, lowerCaseName.charAt(i));
+            best = Math.min(best, row[key.length()]);
+            if (min(row) > maxEdits) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private static int[] nextRow(int[] row, String key, char next)
+    {
+        int[] nextRow = new int[row.length];
+        nextRow[0] = row[0] + 1;
+        for (int j = 1; j < row.length; j++) {
+            int substitution = row[j - 1] + (key.charAt(j - 1) == next ? 0 : 1);
+            nextRow[j] = Math.min(substitution, Math.min(row[j], nextRow[j - 1]) + 1);
+        }
+        return nextRow;
+    }
+
+    private static int min(int[] row)
+    {
+        int min = row[0];
+        for (int value : row) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    /**
+     * A bit for each of the characters {@code a} to {@code z} and {@code 0} to {@code 9} in the key,
+     * and one for all others.
+     */
+    private static long mask(String key)
+    {
+        long mask = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char character = key.charAt(i);
+            if (character >= 'a' && character <= 'z') {
+                mask |= 1L << (character - 'a');
+            }
+            else if (character >= '0' && character <= '9') {
+                mask |= 1L << (26 + character - '0');
+            }
+            else {
+                mask |= 1L << 36;
+            }
+        }
+        return mask;
+    }
+
+    private static int maxEdits(int length)
+    {
+        if (length < 3) {
+            return 0;
+        }
+        return length < 6 ? 1 : 2;
+    }
+
+    /**
+     * Whether a word starts at {@code offset}: at the start of the name, after a character other
+     * than a letter or digit, and at an upper case letter after a lower case one.
+     */
+    private static boolean isWordStart(String name, int offset)
+    {
+        if (offset == 0) {
+            return true;
+        }
+        char current = name.charAt(offset);
+        char previous = name.charAt(offset - 1);
+        return Character.isLetterOrDigit(current) && (!Character.isLetterOrDigit(previous) || (Character.isLowerCase(previous) && Character.isUpperCase(current)));
+    }
+
+    /**
+     * Lower case character by character, so that offsets stay the same.
+     */
+    private static String lowerCase(String text)
+    {
+        char[] characters = text.toCharArray();
+        for (int i = 0; i < characters.length; i++) {
+            characters[i] = Character.toLowerCase(characters[i]);
+        }
+        return new String(characters);
+    }
+
+    /**
+     * Suffixes of names, as the index of the name and the offset in it, sorted by their text.
+     */
+    private final class Suffixes
+    {
+        private final int[] suffixNames;
+        private final int[] suffixOffsets;
+
+        Suffixes(List<int[]> suffixes)
+        {
+            int[][] sorted = suffixes.toArray(new int[0][]);
+            Arrays.sort(sorted, this::compareSuffixes);
+            this.suffixNames = new int[sorted.length];
+            this.suffixOffsets = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                suffixNames[i] = sorted[i][0];
+                suffixOffsets[i] = sorted[i][1];
+            }
+        }
+
+        /**
+         * Adds the names of the suffixes in the range, which share their first {@code depth}
+         * characters, that start with a text at most {@code maxEdits} edits away from {@code key}.
+         * {@code row} holds the edits between that text and each prefix of the key, as a Levenshtein
+         * automaton.
+         */
+        private void walk(int start, int end, int depth, int[] row, String key, int maxEdits, Set<Integer> candidates, int maxCandidates)
+        {
+            if (row[key.length()] <= maxEdits) {
+                for (int suffix = start; suffix < end && candidates.size() < maxCandidates; suffix++) {
+                    candidates.add(suffixNames[suffix]);
+                }
+                return;
+            }
+            // suffixes that end here come first
+            int child = lowerBound(start, end, depth, 0);
+            while (child < end && candidates.size() < maxCandidates) {
+                char next = (char) charAt(child, depth);
+                int childEnd = lowerBound(child, end, depth, next + 1);
+                int[] nextRow = nextRow(row, key, next);
+                if (min(nextRow) <= maxEdits) {
+                    walk(child, childEnd, depth + 1, nextRow, key, maxEdits, candidates, maxCandidates);
+                }
+                child = childEnd;
+            }
+        }
+
+        /**
+         * The range of the suffixes that start with the first {@code length} characters of {@code key}.
+         */
+        private int[] range(String key, int length)
+        {
+            int start = 0;
+            int end = suffixNames.length;
+            for (int depth = 0; depth < length && start < end; depth++) {
+                char next = key.charAt(depth);
+                start = lowerBound(start, end, depth, next);
+                end = lowerBound(start, end, depth, next + 1);
+            }
+            return new int[] {start, end};
+        }
+
+        /**
+         * The first suffix in the range, whose suffixes share their first {@code depth} characters,
+         * with a character of at least {@code value} at {@code depth}.
+         */
+        private int lowerBound(int start, int end, int depth, int value)
+        {
+            while (start < end) {
+                int middle = (start + end) >>> 1;
+                if (charAt(middle, depth) < value) {
+                    start = middle + 1;
+                }
+                else {
+                    end = middle;
+                }
+            }
+            return start;
+        }
+
+        /**
+         * The character at {@code depth} of the suffix, or -1 past its end.
+         */
+        private int charAt(int suffix, int depth)
+        {
+            String key = keys[suffixNames[suffix]];
+            int index = suffixOffsets[suffix] + depth;
+            return index < key.length() ? key.charAt(index) : -1;
+        }
+
+        private int compareSuffixes(int[] left, int[] right)
+        {
+            String leftKey = keys[left[0]];
+            String rightKey = keys[right[0]];
+            int leftLength = leftKey.length() - left[1];
+            int rightLength = rightKey.length() - right[1];
+            for (int i = 0; i < Math.min(leftLength, rightLength); i++) {
+                int difference = leftKey.charAt(left[1] + i) - rightKey.charAt(right[1] + i);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return leftLength - rightLength;
+        }
+    }
+}
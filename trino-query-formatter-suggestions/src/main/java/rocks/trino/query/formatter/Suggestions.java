@@ -0,0 +1,161 @@
+package rocks.trino.query.formatter;
+
+import com.intigua.antlr4.autosuggest.AutoSuggester;
+import com.intigua.antlr4.autosuggest.LexerAndParserFactory;
+import com.intigua.antlr4.autosuggest.ReflectionLexerAndParserFactory;
+import io.trino.sql.parser.CaseInsensitiveStream;
+import io.trino.sql.parser.SqlBaseLexer;
+import io.trino.sql.parser.SqlBaseParser;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.TokenStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Completion suggestions for the statement being edited: names and keywords from the
+ * {@link CompletionContext} at the cursor, and grammar-based completions from {@link AutoSuggester}.
+ */
+public final class Suggestions
+{
+    private static final Collection<String> KNOWN_TABLES = Collections.unmodifiableList(Arrays.asList(
+            "profiles",
+            "events",
+            "orders",
+            "carts",
+            "returns"));
+
+    // TODO figure out how to retrieve schema from Trino
+    private static final Map<String, List<String>> KNOWN_COLUMNS = Map.of("events", List.of("id", "type", "event_time"));
+
+    // Catalogs can hold far more tables than can be matched one by one on every keystroke
+    private static final FuzzyIndex TABLE_INDEX = new FuzzyIndex(KNOWN_TABLES);
+    private static final int MAX_TABLE_SUGGESTIONS = 50;
+
+    private Suggestions()
+    {
+    }
+
+    /**
+     * Names and keywords that can be written at the cursor and match the word being typed there, best
+     * match first, see {@link FuzzyIndex}: tables, CTEs and relations in scope in the FROM clause,
+     * aliases elsewhere, the columns of the relation after {@code alias.}, and the keywords the
+     * grammar allows.
+     */
+    public static Collection<String> fromContext(CompletionContext context)
+    {
+        Set<String> suggestions = new LinkedHashSet<>();
+        if (context.getQualifier() != null) {
+            // relations of inner queries hide those of outer ones with the same alias
+            for (SymbolTable.Relation relation : context.getRelations()) {
+                if (context.getQualifier().equalsIgnoreCase(relation.alias != null ? relation.alias : unqualified(relation.name))) {
+                    suggestions.addAll(relation.columns);
+                    for (String table : relation.tables) {
+                        suggestions.addAll(KNOWN_COLUMNS.getOrDefault(unqualified(table).toLowerCase(Locale.ENGLISH), List.of()));
+                    }
+                    break;
+                }
+            }
+            return FuzzyIndex.rank(suggestions, context.getPrefix());
+        }
+
+        SyntaxError expected = context.getExpected();
+        if (expected == null || expected.getExpected().contains("<identifier>")) {
+            if (context.getClause() == CompletionContext.Clause.FROM) {
+                suggestions.addAll(TABLE_INDEX.search(context.getPrefix(), MAX_TABLE_SUGGESTIONS));
+                suggestions.addAll(context.getCtes());
+                for (SymbolTable.Relation relation : context.getRelations()) {
+                    if (relation.name != null) {
+                        suggestions.add(relation.name);
+                    }
+                }
+                suggestions.addAll(context.getVisibleAliases());
+            }
+            else if (context.getClause() != CompletionContext.Clause.OTHER) {
+                suggestions.addAll(context.getVisibleAliases());
+            }
+        }
+        if (expected != null) {
+            for (String token : expected.getExpected()) {
+                if (Character.isLetter(token.charAt(0))) {
+                    suggestions.add(token);
+                }
+            }
+        }
+        return FuzzyIndex.rank(suggestions, context.getPrefix());
+    }
+
+    private static String unqualified(String name)
+    {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Completions in the form of {@link AutoSuggester}: the text to append at the cursor to complete
+     * each keyword or operator the grammar allows there, given what is already typed of it. The
+     * tokens come from the {@link FollowSets} table, by the parser state at the cursor, instead of a
+     * walk of the grammar. Like {@link AutoSuggester}, a keyword that ends at the cursor is completed
+     * as well, such as {@code OR} to {@code ORDER}, when the context was created with partial
+     * keywords.
+     */
+    public static Collection<String> autoComplete(CompletionContext context)
+    {
+        SyntaxError expected = context.getExpected();
+        if (expected == null) {
+            return Collections.emptyList();
+        }
+        String prefix = context.getPrefix();
+        List<String> completions = new ArrayList<>();
+        for (String token : expected.getExpected()) {
+            if (!token.startsWith("<") && token.length() > prefix.length() && token.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                completions.add(token.substring(prefix.length()));
+            }
+        }
+        return completions;
+    }
+
+    public static Collection<String> autoComplete(String sql)
+    {
+        return autoComplete(sql, () -> {});
+    }
+
+    /**
+     * @param checkpoint runs whenever the suggester creates a lexer or parser, and the completion is
+     * abandoned when it throws; the current {@link Deadline} is checked there as well
+     */
+    public static Collection<String> autoComplete(String sql, Runnable checkpoint)
+    {
+        LexerAndParserFactory lexerAndParserFactory = new ReflectionLexerAndParserFactory(SqlBaseLexer.class, SqlBaseParser.class) {
+            @Override
+            public Lexer createLexer(CharStream input)
+            {
+                checkpoint(checkpoint);
+                return super.createLexer(new CaseInsensitiveStream(input));
+            }
+
+            @Override
+            public Parser createParser(TokenStream tokenStream)
+            {
+                checkpoint(checkpoint);
+                return super.createParser(tokenStream);
+            }
+        };
+        AutoSuggester suggester = new AutoSuggester(lexerAndParserFactory, sql);
+        return suggester.suggestCompletions();
+    }
+
+    private static void checkpoint(Runnable checkpoint)
+    {
+        checkpoint.run();
+        Deadline.checkCurrent("completion");
+    }
+}
@@ -0,0 +1,67 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FuzzyIndexTest
+{
+    private static final String[] WORDS = {"customer", "order", "event", "session", "payment", "product", "invoice", "daily", "raw", "stg"};
+
+    // many names with the typed words in the middle, which sort before the few that start with them
+    private static final FuzzyIndex INDEX = new FuzzyIndex(catalog(200_000));
+
+    @Test
+    public void testPrefix()
+    {
+        List<String> matches = INDEX.search("customer", 10);
+
+        Assert.assertEquals("customers", matches.get(0));
+        Assert.assertTrue(matches.contains("customer_orders"));
+        for (String match : matches.subList(0, 2)) {
+            Assert.assertTrue(match, match.startsWith("customer"));
+        }
+    }
+
+    @Test
+    public void testSubsequence()
+    {
+        Assert.assertEquals("event_time", INDEX.search("evti", 10).get(0));
+        Assert.assertEquals("eventTime", new FuzzyIndex(List.of("events", "eventTime", "time")).search("evti", 10).get(0));
+    }
+
+    @Test
+    public void testTypo()
+    {
+        Assert.assertEquals("customers", INDEX.search("cuxtomers", 10).get(0));
+        Assert.assertEquals("event_time", INDEX.search("evant", 10).get(0));
+        Assert.assertEquals(List.of(), INDEX.search("xqzv", 10));
+    }
+
+    @Test
+    public void testEmptyWord()
+    {
+        Assert.assertEquals(List.of("daily_customer_0", "daily_order_1"), INDEX.search("", 2));
+    }
+
+    @Test
+    public void testLimit()
+    {
+        Assert.assertEquals(5, INDEX.search("raw", 5).size());
+        Assert.assertEquals(200_003, INDEX.size());
+    }
+
+    private static List<String> catalog(int generated)
+    {
+        List<String> names = new ArrayList<>(generated + 3);
+        for (int i = 0; i < generated; i++) {
+            names.add(WORDS[(i / WORDS.length) % 3 + 7] + "_" + WORDS[i % WORDS.length] + "_" + i);
+        }
+        names.add("customers");
+        names.add("customer_orders");
+        names.add("event_time");
+        return names;
+    }
+}
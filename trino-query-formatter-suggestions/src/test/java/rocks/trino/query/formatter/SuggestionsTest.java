@@ -0,0 +1,52 @@
+package rocks.trino.query.formatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class SuggestionsTest
+{
+    // queries that end in whitespace, in a partial keyword or identifier, and in a complete keyword
+    // that is also the start of longer ones
+    private static final List<String> CORPUS = List.of(
+            "SELECT ",
+            "SELECT * FROM t ",
+            "SELECT * FROM t WHERE ",
+            "SELECT * FROM t WHERE a IS NOT ",
+            "SELECT * FROM t WHERE a = 1 AN",
+            "SELECT * FROM t GROUP ",
+            "SELECT a, count(*) FROM t GROUP BY a HAV",
+            "SELECT * FROM t OR",
+            "SELECT * FROM t IN",
+            "SELECT * FROM t ORDER BY a AS",
+            "SELECT * FROM t LEFT ",
+            "SELECT * FROM t JOIN u ON t.id = u.id WHERE t.a IN (SELECT b FROM v) ",
+            "WITH w AS (SELECT 1) SELECT * FROM w UNION ",
+            "INSERT INTO t ",
+            "CREATE TABLE t ");
+
+    private final ParserDfaCache dfaCache = new ParserDfaCache(QueryFormatter.DEFAULT_MAX_DFA_STATES);
+
+    @Test
+    public void testAutoCompleteSameAsAutoSuggester()
+    {
+        for (String sql : CORPUS) {
+            CompletionContext context = CompletionContext.at(dfaCache, TokenBuffer.lex(dfaCache, sql), sql.length(), null, () -> {}, true);
+            Assert.assertEquals(sql, new TreeSet<>(Suggestions.autoComplete(sql)), new TreeSet<>(Suggestions.autoComplete(context)));
+        }
+    }
+
+    @Test
+    public void testAutoCompleteKeywordPrefix()
+    {
+        String sql = "SELECT * FROM t OR";
+        CompletionContext context = CompletionContext.at(dfaCache, TokenBuffer.lex(dfaCache, sql), sql.length(), null, () -> {}, true);
+
+        Assert.assertTrue(context.isAfterKeyword());
+        Assert.assertEquals("OR", context.getPrefix());
+        Assert.assertEquals(Set.of("DER"), new TreeSet<>(Suggestions.autoComplete(context)));
+    }
+}